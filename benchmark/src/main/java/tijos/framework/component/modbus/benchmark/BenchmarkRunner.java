@@ -0,0 +1,22 @@
+package tijos.framework.component.modbus.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run all benchmarks with the GC profiler, so every result reports 
+ * ops/s together with bytes allocated per operation (gc.alloc.rate.norm)
+ *
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		Options opt = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(opt).run();
+	}
+}
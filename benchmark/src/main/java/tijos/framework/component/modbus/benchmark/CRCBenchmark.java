@@ -0,0 +1,41 @@
+package tijos.framework.component.modbus.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+/**
+ * CRC16 over typical frame sizes: request, short and full response
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CRCBenchmark {
+
+	@Param({ "6", "25", "254" })
+	public int size;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		data = new byte[size];
+		new Random(1).nextBytes(data);
+	}
+
+	@Benchmark
+	public int calcCRC16() {
+		return ModbusPdu.calcCRC16(data, 0, size);
+	}
+}
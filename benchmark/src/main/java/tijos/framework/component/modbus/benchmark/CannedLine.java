@@ -0,0 +1,100 @@
+package tijos.framework.component.modbus.benchmark;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+import tijos.framework.component.rs485.SerialLine;
+
+/**
+ * Serial line answering every write with the same canned frame, 
+ * available at once and without any line timing
+ *
+ */
+public class CannedLine implements SerialLine {
+
+	private final byte[] response = new byte[256];
+	private int responseLength;
+	private int readPos;
+	private boolean pending;
+
+	/**
+	 * Set response ADU, CRC is appended 
+	 * @param serverIdAndPdu [ID(1), PDU(n)]
+	 */
+	public void setResponse(byte[] serverIdAndPdu) {
+		System.arraycopy(serverIdAndPdu, 0, response, 0, serverIdAndPdu.length);
+		int crc = ModbusPdu.calcCRC16(response, 0, serverIdAndPdu.length);
+		response[serverIdAndPdu.length] = ModbusPdu.lowByte(crc);
+		response[serverIdAndPdu.length + 1] = ModbusPdu.highByte(crc);
+		responseLength = serverIdAndPdu.length + 2;
+	}
+
+	@Override
+	public void setWorkParameters(int dataBitNum, int stopBitNum, int parity, int baudRate) {
+	}
+
+	@Override
+	public void clearInput() {
+		pending = false;
+	}
+
+	@Override
+	public void write(byte[] buffer, int start, int length) {
+		readPos = 0;
+		pending = true;
+	}
+
+	@Override
+	public int read(byte[] buffer, int start, int length) {
+		if (!pending)
+			return 0;
+		int count = Math.min(length, responseLength - readPos);
+		System.arraycopy(response, readPos, buffer, start, count);
+		readPos += count;
+		if (readPos >= responseLength)
+			pending = false;
+		return count;
+	}
+
+	@Override
+	public int read(byte[] buffer, int start, int length, int timeout) {
+		return read(buffer, start, length);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Response to READ HOLDING REGISTERs 
+	 * @param serverId
+	 * @param count number of registers
+	 * @return [ID(1), PDU(n)]
+	 */
+	public static byte[] readRegistersResponse(int serverId, int count) {
+		byte[] frame = new byte[3 + count * 2];
+		frame[0] = (byte) serverId;
+		frame[1] = 3;
+		frame[2] = (byte) (count * 2);
+		for (int i = 0; i < count; i++) {
+			frame[3 + i * 2] = ModbusPdu.highByte(i * 7);
+			frame[4 + i * 2] = ModbusPdu.lowByte(i * 7);
+		}
+		return frame;
+	}
+
+	/**
+	 * Response to READ COILS
+	 * @param serverId
+	 * @param count number of coils
+	 * @return [ID(1), PDU(n)]
+	 */
+	public static byte[] readCoilsResponse(int serverId, int count) {
+		int bytes = ModbusPdu.bytesCount(count);
+		byte[] frame = new byte[3 + bytes];
+		frame[0] = (byte) serverId;
+		frame[1] = 1;
+		frame[2] = (byte) bytes;
+		for (int i = 0; i < bytes; i++)
+			frame[3 + i] = (byte) (0x55 ^ i);
+		return frame;
+	}
+}
@@ -0,0 +1,77 @@
+package tijos.framework.component.modbus.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Request encoders of ModbusClient
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestEncodeBenchmark {
+
+	private ModbusClient client;
+	private int[] registers;
+	private boolean[] coils;
+
+	@Setup
+	public void setup() {
+		client = new ModbusClient(new TiRS485(new CannedLine()), 1000, 0);
+		registers = new int[MAX_WRITE_REGS];
+		for (int i = 0; i < registers.length; i++)
+			registers[i] = i * 31;
+		coils = new boolean[MAX_WRITE_COILS];
+		for (int i = 0; i < coils.length; i++)
+			coils[i] = (i % 3) == 0;
+	}
+
+	@Benchmark
+	public ModbusClient readHoldings() {
+		client.InitReadHoldingsRequest(1, 100, MAX_READ_REGS);
+		return client;
+	}
+
+	@Benchmark
+	public ModbusClient readCoils() {
+		client.InitReadCoilsRequest(1, 100, MAX_READ_COILS);
+		return client;
+	}
+
+	@Benchmark
+	public ModbusClient writeRegister() {
+		client.InitWriteRegisterRequest(1, 100, 1234);
+		return client;
+	}
+
+	@Benchmark
+	public ModbusClient writeCoil() {
+		client.InitWriteCoilRequest(1, 100, true);
+		return client;
+	}
+
+	@Benchmark
+	public ModbusClient writeRegisters() {
+		client.InitWriteRegistersRequest(1, 100, registers);
+		return client;
+	}
+
+	@Benchmark
+	public ModbusClient writeCoils() {
+		client.InitWriteCoilsRequest(1, 100, coils);
+		return client;
+	}
+}
@@ -0,0 +1,68 @@
+package tijos.framework.component.modbus.benchmark;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Per-register and per-bit accessors over a full response, one op decodes the whole block
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseAccessBenchmark {
+
+	private ModbusClient registers;
+	private ModbusClient coils;
+
+	@Setup
+	public void setup() throws Exception {
+		CannedLine regLine = new CannedLine();
+		regLine.setResponse(CannedLine.readRegistersResponse(1, MAX_READ_REGS));
+		registers = new ModbusClient(new TiRS485(regLine), 1000, 0);
+		registers.InitReadHoldingsRequest(1, 0, MAX_READ_REGS);
+		if (registers.execRequest() != ModbusClient.RESULT_OK)
+			throw new IllegalStateException("register response");
+
+		CannedLine coilLine = new CannedLine();
+		coilLine.setResponse(CannedLine.readCoilsResponse(1, MAX_READ_COILS));
+		coils = new ModbusClient(new TiRS485(coilLine), 1000, 0);
+		coils.InitReadCoilsRequest(1, 0, MAX_READ_COILS);
+		if (coils.execRequest() != ModbusClient.RESULT_OK)
+			throw new IllegalStateException("coil response");
+	}
+
+	@Benchmark
+	public int getResponseRegisters() {
+		int sum = 0;
+		int address = registers.getResponseAddress();
+		int end = address + registers.getResponseCount();
+		for (int i = address; i < end; i++)
+			sum += registers.getResponseRegister(i, true);
+		return sum;
+	}
+
+	@Benchmark
+	public int getResponseBits() {
+		int set = 0;
+		int address = coils.getResponseAddress();
+		int end = address + coils.getResponseCount();
+		for (int i = address; i < end; i++) {
+			if (coils.getResponseBit(i))
+				set++;
+		}
+		return set;
+	}
+}
@@ -0,0 +1,57 @@
+package tijos.framework.component.modbus.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.RtuTransportUART;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * RTU transport send and receive over a canned in-memory byte stream, 
+ * measures framing and CRC cost without any line timing
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransportBenchmark {
+
+	@Param({ "2", "125" })
+	public int count;
+
+	private ModbusClient client;
+	private RtuTransportUART transport;
+
+	@Setup
+	public void setup() {
+		CannedLine line = new CannedLine();
+		line.setResponse(CannedLine.readRegistersResponse(1, count));
+		TiRS485 rs485 = new TiRS485(line);
+		transport = new RtuTransportUART(rs485, 1000, 0);
+		client = new ModbusClient(rs485, 1000, 0);
+		client.setTransport(transport);
+	}
+
+	@Benchmark
+	public int sendRequest() throws Exception {
+		client.InitReadHoldingsRequest(1, 0, count);
+		transport.sendRequest(client);
+		return client.getPduSize();
+	}
+
+	@Benchmark
+	public int sendAndWaitResponse() throws Exception {
+		client.InitReadHoldingsRequest(1, 0, count);
+		transport.sendRequest(client);
+		return transport.waitResponse(client);
+	}
+}
@@ -0,0 +1,182 @@
+package tijos.framework.component.modbus.async;
+
+import java.util.concurrent.locks.LockSupport;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.rtu.ModbusResponse;
+import tijos.framework.component.modbus.rtu.ModbusResponsePool;
+import tijos.framework.util.logging.Logger;
+
+/**
+ * Thread-safe front end of a {@link ModbusClient}. 
+ * Requests from any thread are queued without locking to one bus thread which owns the client, 
+ * results are delivered through {@link ModbusFuture} or {@link ModbusCallback}. 
+ * The client must not be used directly while the bus thread is running.
+ * @author TiJOS
+ *
+ */
+public class AsyncModbusClient implements Runnable {
+
+	private final ModbusClient client;
+	private final MpscQueue queue = new MpscQueue();
+	private volatile ModbusResponsePool pool;
+
+	private volatile boolean running;
+	private volatile boolean stopped; // requests fail at once
+	private volatile Thread thread;
+
+	/**
+	 * Initialize with client
+	 * @param client
+	 */
+	public AsyncModbusClient(ModbusClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Take responses from a pool, receivers must release them. 
+	 * A response is allocated if the pool is exhausted. null to allocate every response
+	 * @param pool
+	 */
+	public void setResponsePool(ModbusResponsePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Start bus thread
+	 * @throws IllegalStateException if the bus is still stopping
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		if (thread != null)
+			throw new IllegalStateException("Bus stopping");
+		running = true;
+		stopped = false;
+		Thread t = new Thread(this, "ModbusBus");
+		thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stop bus thread after the request in progress, requests still queued 
+	 * and requests submitted until the next start fail. 
+	 * The monitor is not held while waiting, a callback may still submit requests
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			running = false;
+			stopped = true;
+		}
+		if (t != null) {
+			LockSupport.unpark(t);
+			if (t != Thread.currentThread())
+				t.join();
+		}
+		synchronized (this) {
+			if (thread == t)
+				thread = null;
+			failQueued();
+		}
+	}
+
+	/**
+	 * Fail queued requests once the bus thread has ended, the caller is the only consumer of the queue then
+	 */
+	private synchronized void failQueued() {
+		if (!stopped || (thread != null))
+			return;
+		Exception error = new IllegalStateException("Bus stopped");
+		ModbusFuture f;
+		while ((f = queue.poll()) != null)
+			complete(f, null, error);
+	}
+
+	/**
+	 * Queue request
+	 * @param request
+	 * @return future of the response
+	 */
+	public ModbusFuture submit(ModbusRequest request) {
+		return submit(request, null);
+	}
+
+	/**
+	 * Queue request with completion callback
+	 * @param request
+	 * @param callback	called on the bus thread, may be null
+	 * @return future of the response
+	 */
+	public ModbusFuture submit(ModbusRequest request, ModbusCallback callback) {
+		ModbusFuture future = new ModbusFuture(request, callback);
+		queue.offer(future);
+		// checked after offering: either stop() finds the request in the queue, or it is failed here
+		if (stopped) {
+			failQueued();
+			return future;
+		}
+		Thread t = thread;
+		if (t != null)
+			LockSupport.unpark(t);
+		return future;
+	}
+
+	/**
+	 * Execute request and wait for the response
+	 * @param request
+	 * @return response
+	 * @throws Exception
+	 */
+	public ModbusResponse execute(ModbusRequest request) throws Exception {
+		return submit(request).get();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			ModbusFuture future = queue.poll();
+			if (future == null) {
+				LockSupport.park(this);
+				continue;
+			}
+			execute(future);
+		}
+	}
+
+	private void execute(ModbusFuture future) {
+		ModbusResponse response = null;
+		Exception error = null;
+		try {
+			ModbusResponsePool p = pool;
+			if (p != null)
+				response = p.acquire();
+			if (response == null)
+				response = new ModbusResponse();
+			client.execRequest(future.getRequest(), response);
+		} catch (Exception ex) {
+			if (response != null)
+				response.release();
+			response = null;
+			error = ex;
+		}
+		complete(future, response, error);
+	}
+
+	/**
+	 * Complete future, an exception of the callback must not end the bus thread
+	 * @param future
+	 * @param response
+	 * @param error
+	 */
+	private static void complete(ModbusFuture future, ModbusResponse response, Exception error) {
+		try {
+			future.complete(response, error);
+		} catch (Throwable t) {
+			Logger.warning("Modbus", "Callback failed: " + t);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package tijos.framework.component.modbus.async;
+
+/**
+ * Completion callback of an asynchronous request, called on the bus thread
+ * @author TiJOS
+ *
+ */
+public interface ModbusCallback {
+
+	/**
+	 * Request has been executed or failed, see {@link ModbusFuture#getResponse()} and {@link ModbusFuture#getError()}
+	 * @param future
+	 */
+	public void onComplete(ModbusFuture future);
+}
@@ -0,0 +1,97 @@
+package tijos.framework.component.modbus.async;
+
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.rtu.ModbusResponse;
+
+/**
+ * Pending result of a request submitted to {@link AsyncModbusClient}
+ * @author TiJOS
+ *
+ */
+public class ModbusFuture {
+
+	private final ModbusRequest request;
+	private final ModbusCallback callback;
+
+	private ModbusResponse response;
+	private Exception error;
+	private boolean done;
+
+	volatile ModbusFuture next; // link of MpscQueue
+
+	ModbusFuture(ModbusRequest request, ModbusCallback callback) {
+		this.request = request;
+		this.callback = callback;
+	}
+
+	public ModbusRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * Request has been executed or failed
+	 * @return
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Response, does not wait
+	 * @return null if not done or failed
+	 */
+	public synchronized ModbusResponse getResponse() {
+		return response;
+	}
+
+	/**
+	 * Exception thrown while executing the request
+	 * @return null if not done or successful
+	 */
+	public synchronized Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Wait for the response
+	 * @return response, see {@link ModbusResponse#getResult()} 
+	 * @throws Exception exception thrown while executing the request
+	 */
+	public synchronized ModbusResponse get() throws Exception {
+		while (!done)
+			wait();
+		if (error != null)
+			throw error;
+		return response;
+	}
+
+	/**
+	 * Wait for the response with timeout
+	 * @param timeout ms
+	 * @return response, null on timeout
+	 * @throws Exception exception thrown while executing the request
+	 */
+	public synchronized ModbusResponse get(long timeout) throws Exception {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!done) {
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0)
+				return null;
+			wait(wait);
+		}
+		if (error != null)
+			throw error;
+		return response;
+	}
+
+	void complete(ModbusResponse response, Exception error) {
+		synchronized (this) {
+			this.response = response;
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+		if (callback != null)
+			callback.onComplete(this);
+	}
+}
@@ -0,0 +1,42 @@
+package tijos.framework.component.modbus.async;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer single-consumer queue of futures, linked through the futures 
+ * themselves so offering allocates nothing. Producers only do one atomic swap.
+ *
+ */
+class MpscQueue {
+
+	private final AtomicReference<ModbusFuture> tail;
+	private ModbusFuture head; // consumer only, always a consumed or stub entry
+
+	MpscQueue() {
+		head = new ModbusFuture(null, null);
+		tail = new AtomicReference<ModbusFuture>(head);
+	}
+
+	/**
+	 * Add future, any thread
+	 * @param future
+	 */
+	void offer(ModbusFuture future) {
+		future.next = null;
+		ModbusFuture prev = tail.getAndSet(future);
+		prev.next = future;
+	}
+
+	/**
+	 * Remove next future, consumer thread only
+	 * @return null if empty or an offer is not complete yet
+	 */
+	ModbusFuture poll() {
+		ModbusFuture next = head.next;
+		if (next == null)
+			return null;
+		head.next = null;
+		head = next;
+		return next;
+	}
+}
@@ -0,0 +1,165 @@
+package tijos.framework.component.modbus.async;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.rtu.ModbusResponse;
+import tijos.framework.component.modbus.rtu.ModbusResponsePool;
+
+/**
+ * Several RS485 ports driven in parallel, each by its own {@link AsyncModbusClient} and bus thread. 
+ * Requests are routed to the port of their server id, so the ports work at the same time 
+ * and the throughput adds up. Results of all ports may go to one shared {@link ResultQueue}.
+ * @author TiJOS
+ *
+ */
+public class MultiPortClient {
+
+	private static final int SERVERS = 248; // id 0..247
+
+	// replaced, never modified, under the monitor so that submit() reads them without locking
+	private volatile AsyncModbusClient[] ports = new AsyncModbusClient[0];
+	private volatile byte[] route = new byte[SERVERS]; // port of each server id, -1 if not mapped
+	private volatile ModbusCallback sink;
+	private boolean running;
+
+	public MultiPortClient() {
+		byte[] r = route;
+		for (int i = 0; i < SERVERS; i++)
+			r[i] = -1;
+	}
+
+	/**
+	 * Add a port, before {@link #start()}
+	 * @param client	client of the port, used only by its bus thread from now on
+	 * @return port index
+	 */
+	public synchronized int addPort(ModbusClient client) {
+		if (running)
+			throw new IllegalStateException("Already started");
+		if (ports.length >= Byte.MAX_VALUE)
+			throw new IllegalArgumentException("Too many ports");
+		AsyncModbusClient[] list = new AsyncModbusClient[ports.length + 1];
+		System.arraycopy(ports, 0, list, 0, ports.length);
+		list[ports.length] = new AsyncModbusClient(client);
+		ports = list;
+		return ports.length - 1;
+	}
+
+	public int getPortCount() {
+		return ports.length;
+	}
+
+	/**
+	 * Asynchronous client of a port, e.g. to send a broadcast on that port
+	 * @param port
+	 * @return
+	 */
+	public AsyncModbusClient getPort(int port) {
+		return ports[port];
+	}
+
+	/**
+	 * Route server ids to a port
+	 * @param firstId	first server id 1..247
+	 * @param count		number of ids
+	 * @param port		port index, -1 to remove the route
+	 */
+	public synchronized void mapServers(int firstId, int count, int port) {
+		if ((port < -1) || (port >= ports.length) || (firstId < 1) || (firstId + count > SERVERS))
+			throw new IllegalArgumentException();
+		byte[] r = new byte[SERVERS];
+		System.arraycopy(route, 0, r, 0, SERVERS);
+		for (int i = firstId; i < firstId + count; i++)
+			r[i] = (byte) port;
+		route = r;
+	}
+
+	/**
+	 * Port of a server id
+	 * @param serverId
+	 * @return port index, -1 if not mapped
+	 */
+	public int getPortOf(int serverId) {
+		if ((serverId < 0) || (serverId >= SERVERS))
+			return -1;
+		return route[serverId];
+	}
+
+	/**
+	 * Set callback for the requests submitted without one, e.g. a {@link ResultQueue}. 
+	 * It is called on the bus threads of all ports and must be thread-safe
+	 * @param sink
+	 */
+	public void setResultSink(ModbusCallback sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Take responses from a pool shared by all ports, see {@link AsyncModbusClient#setResponsePool(ModbusResponsePool)}
+	 * @param pool
+	 */
+	public void setResponsePool(ModbusResponsePool pool) {
+		AsyncModbusClient[] p = ports;
+		for (int i = 0; i < p.length; i++)
+			p[i].setResponsePool(pool);
+	}
+
+	/**
+	 * Start the bus threads of all ports
+	 */
+	public synchronized void start() {
+		running = true;
+		for (int i = 0; i < ports.length; i++)
+			ports[i].start();
+	}
+
+	/**
+	 * Stop the bus threads, requests still queued fail. 
+	 * The monitor is not held while waiting, callbacks may still submit requests
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		AsyncModbusClient[] p;
+		synchronized (this) {
+			running = false;
+			p = ports;
+		}
+		for (int i = 0; i < p.length; i++)
+			p[i].stop();
+	}
+
+	/**
+	 * Queue request on the port of its server, the result goes to the result sink
+	 * @param request
+	 * @return future of the response
+	 * @throws IllegalArgumentException	if the server is not mapped to a port
+	 */
+	public ModbusFuture submit(ModbusRequest request) {
+		return submit(request, sink);
+	}
+
+	/**
+	 * Queue request on the port of its server
+	 * @param request
+	 * @param callback	called on the bus thread of the port, may be null
+	 * @return future of the response
+	 * @throws IllegalArgumentException	if the server is not mapped to a port
+	 */
+	public ModbusFuture submit(ModbusRequest request, ModbusCallback callback) {
+		// route before ports: a route only refers to ports added before it
+		int index = getPortOf(request.getServerId());
+		if (index < 0)
+			throw new IllegalArgumentException("No port for server " + request.getServerId());
+		return ports[index].submit(request, callback);
+	}
+
+	/**
+	 * Execute request and wait for the response
+	 * @param request
+	 * @return response
+	 * @throws Exception
+	 */
+	public ModbusResponse execute(ModbusRequest request) throws Exception {
+		return submit(request, null).get();
+	}
+}
@@ -0,0 +1,50 @@
+package tijos.framework.component.modbus.async;
+
+import java.util.ArrayDeque;
+
+/**
+ * Completed requests of several bus threads collected for one consumer thread. 
+ * Use it as callback of {@link AsyncModbusClient#submit(tijos.framework.component.modbus.rtu.ModbusRequest, ModbusCallback)} 
+ * or as sink of {@link MultiPortClient}.
+ * @author TiJOS
+ *
+ */
+public class ResultQueue implements ModbusCallback {
+
+	private final ArrayDeque<ModbusFuture> queue = new ArrayDeque<ModbusFuture>();
+
+	@Override
+	public synchronized void onComplete(ModbusFuture future) {
+		queue.addLast(future);
+		notifyAll();
+	}
+
+	/**
+	 * Remove next completed request, does not wait
+	 * @return null if empty
+	 */
+	public synchronized ModbusFuture poll() {
+		return queue.pollFirst();
+	}
+
+	/**
+	 * Remove next completed request, wait until one is available
+	 * @param timeout ms
+	 * @return null on timeout
+	 * @throws InterruptedException
+	 */
+	public synchronized ModbusFuture take(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (queue.isEmpty()) {
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0)
+				return null;
+			wait(wait);
+		}
+		return queue.pollFirst();
+	}
+
+	public synchronized int size() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,49 @@
+package tijos.framework.component.modbus.gateway;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * State of one MODBUS TCP connection of {@link ModbusTcpGateway}. 
+ * All buffers are allocated when the connection is accepted. Guarded by the gateway lock, 
+ * except the input and sending buffers which only the selector thread uses.
+ * @author TiJOS
+ *
+ */
+class GatewayConnection {
+
+	static final int MAX_FRAME = 260; // MBAP header(7), PDU(253)
+
+	final SocketChannel channel;
+	final SelectionKey key;
+	final ByteBuffer in = ByteBuffer.allocate(MAX_FRAME * 2);
+	final ByteBuffer out; // responses added by the bus thread
+	final ByteBuffer sending; // responses taken from out, being written to the socket
+
+	// requests waiting for the bus, ring of complete MBAP frames
+	final byte[][] requests;
+	final int[] requestLength;
+	int head;
+	int count;
+
+	int inFlight; // requests queued or being executed, plus responses not yet sent
+	int responses; // responses in the output buffer
+	int sendingResponses; // responses in the sending buffer
+	boolean queued; // in the ready queue of the bus thread
+	boolean dirty; // interest ops need updating by the selector thread
+	boolean closed;
+
+	GatewayConnection(SocketChannel channel, SelectionKey key, int depth) {
+		this.channel = channel;
+		this.key = key;
+		this.out = ByteBuffer.allocate(MAX_FRAME * depth);
+		this.sending = ByteBuffer.allocate(MAX_FRAME * depth);
+		this.requests = new byte[depth][MAX_FRAME];
+		this.requestLength = new int[depth];
+	}
+
+	int depth() {
+		return requests.length;
+	}
+}
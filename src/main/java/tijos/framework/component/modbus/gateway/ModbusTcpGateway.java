@@ -0,0 +1,505 @@
+package tijos.framework.component.modbus.gateway;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.util.logging.Logger;
+
+/**
+ * MODBUS TCP to RTU gateway. All TCP connections are served by one selector thread, 
+ * requests are executed on the serial line by one bus thread owning the {@link ModbusClient}. 
+ * The bus takes one request from each connection in turn, so a busy master cannot starve 
+ * the others. Responses carry the transaction id of their request.<br>
+ * Each connection may have a few requests in flight, further requests stay unread in the socket. 
+ * Frames are parsed in buffers allocated per connection, nothing is allocated per frame.
+ * @author TiJOS
+ *
+ */
+public class ModbusTcpGateway implements Runnable {
+
+	public static final int DEFAULT_PORT = 502;
+
+	private final ModbusClient client;
+	private final int[] unitMap = new int[256]; // unit id to server id, -1 if not mapped
+	private int queueDepth = 4;
+	private int maxConnections = 32;
+
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread selectorThread;
+	private Thread busThread;
+	private volatile boolean running;
+
+	// gateway lock, guards the queues and the connection state shared with the bus thread
+	private final Object lock = new Object();
+	private final ArrayDeque<GatewayConnection> ready = new ArrayDeque<GatewayConnection>();
+	private final ArrayDeque<GatewayConnection> dirty = new ArrayDeque<GatewayConnection>();
+	private int connectionCount;
+	private long requestCount;
+
+	private final byte[] response = new byte[GatewayConnection.MAX_FRAME]; // bus thread only
+
+	/**
+	 * Initialize gateway, unit ids 1..247 are mapped to the same server ids
+	 * @param client	client of the serial line, used only by the gateway
+	 */
+	public ModbusTcpGateway(ModbusClient client) {
+		this.client = client;
+		for (int i = 0; i < unitMap.length; i++)
+			unitMap[i] = ((i >= 1) && (i <= 247)) ? i : -1;
+	}
+
+	/**
+	 * Map a MODBUS TCP unit id to a server id on the serial line
+	 * @param unitId	0..255
+	 * @param serverId	0..247, -1 to answer with EX_GATEWAY_PATH_UNAVAILABLE. 0 broadcasts writes
+	 */
+	public void setUnitMapping(int unitId, int serverId) {
+		if ((serverId < -1) || (serverId > 247))
+			throw new IllegalArgumentException("Invalid server id: " + serverId);
+		synchronized (lock) {
+			unitMap[unitId] = serverId;
+		}
+	}
+
+	public int getUnitMapping(int unitId) {
+		synchronized (lock) {
+			return unitMap[unitId];
+		}
+	}
+
+	/**
+	 * Set number of requests a connection may have in flight, applies to new connections
+	 * @param depth
+	 */
+	public void setQueueDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException();
+		this.queueDepth = depth;
+	}
+
+	/**
+	 * Set number of simultaneous connections, further connections are closed at once
+	 * @param max
+	 */
+	public void setMaxConnections(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException();
+		this.maxConnections = max;
+	}
+
+	/**
+	 * Start listening on all interfaces
+	 * @param port	TCP port, 0 for any free port
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		start(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Start listening
+	 * @param address
+	 * @throws IOException
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		if (running)
+			return;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.socket().bind(address);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+
+		selectorThread = new Thread(this, "ModbusGateway");
+		busThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runBus();
+			}
+		}, "ModbusGatewayBus");
+		selectorThread.start();
+		busThread.start();
+	}
+
+	/**
+	 * Local port
+	 * @return port, -1 if not started
+	 */
+	public synchronized int getPort() {
+		return (server == null) ? -1 : server.socket().getLocalPort();
+	}
+
+	/**
+	 * Stop the threads and close all connections
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		Thread st;
+		Thread bt;
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+			st = selectorThread;
+			bt = busThread;
+		}
+		selector.wakeup();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		st.join();
+		bt.join();
+		synchronized (this) {
+			for (SelectionKey key : selector.keys()) {
+				Object conn = key.attachment();
+				if (conn instanceof GatewayConnection)
+					close((GatewayConnection) conn);
+				else
+					closeQuietly(key);
+			}
+			closeQuietly(selector);
+			server = null;
+		}
+		synchronized (lock) {
+			// nothing of the closed connections may reach the bus thread after a restart
+			ready.clear();
+			dirty.clear();
+			connectionCount = 0;
+		}
+	}
+
+	public int getConnectionCount() {
+		synchronized (lock) {
+			return connectionCount;
+		}
+	}
+
+	/**
+	 * Number of requests executed
+	 * @return
+	 */
+	public long getRequestCount() {
+		synchronized (lock) {
+			return requestCount;
+		}
+	}
+
+	/**
+	 * Selector loop: accepts connections, reads requests and writes responses
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				updateInterest();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else {
+						GatewayConnection conn = (GatewayConnection) key.attachment();
+						try {
+							if (key.isReadable())
+								read(conn);
+							if (key.isValid() && key.isWritable())
+								write(conn);
+						} catch (IOException e) {
+							close(conn);
+						} catch (RuntimeException e) {
+							// a bug with one connection must not stop the selector thread
+							Logger.warning("ModbusGateway", "connection: " + e);
+							close(conn);
+						}
+					}
+				}
+			} catch (IOException e) {
+				Logger.warning("ModbusGateway", "select: " + e.getMessage());
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch = server.accept();
+		if (ch == null)
+			return;
+		synchronized (lock) {
+			if (connectionCount >= maxConnections) {
+				closeQuietly(ch);
+				return;
+			}
+			connectionCount++;
+		}
+		ch.configureBlocking(false);
+		ch.socket().setTcpNoDelay(true);
+		SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+		key.attach(new GatewayConnection(ch, key, queueDepth));
+	}
+
+	private void read(GatewayConnection conn) throws IOException {
+		if (conn.in.hasRemaining() && (conn.channel.read(conn.in) < 0)) {
+			close(conn);
+			return;
+		}
+		parse(conn);
+	}
+
+	/**
+	 * Move complete frames from the input buffer to the request queue of the connection
+	 * @param conn
+	 * @throws IOException	if the stream is not MODBUS TCP
+	 */
+	private void parse(GatewayConnection conn) throws IOException {
+		ByteBuffer in = conn.in;
+		byte[] data = in.array();
+		int start = 0;
+		while (in.position() - start >= 7) {
+			// MBAP: transaction id(2), protocol id(2), length(2), unit id(1)
+			int protocol = ((data[start + 2] & 0xFF) << 8) | (data[start + 3] & 0xFF);
+			int length = ((data[start + 4] & 0xFF) << 8) | (data[start + 5] & 0xFF);
+			if ((protocol != 0) || (length < 2) || (length > MAX_PDU_SIZE + 1))
+				throw new IOException("Invalid MBAP header");
+			int frame = 6 + length;
+			if (in.position() - start < frame)
+				break;
+			synchronized (lock) {
+				if (conn.inFlight >= conn.depth())
+					break;
+				int slot = (conn.head + conn.count) % conn.depth();
+				System.arraycopy(data, start, conn.requests[slot], 0, frame);
+				conn.requestLength[slot] = frame;
+				conn.count++;
+				conn.inFlight++;
+				if (!conn.queued) {
+					conn.queued = true;
+					ready.addLast(conn);
+					lock.notifyAll();
+				}
+			}
+			start += frame;
+		}
+		if (start > 0) {
+			System.arraycopy(data, start, data, 0, in.position() - start);
+			in.position(in.position() - start);
+		}
+		synchronized (lock) {
+			setInterest(conn);
+		}
+	}
+
+	/**
+	 * Send responses, the socket is written without the gateway lock so that the bus thread 
+	 * is never held up by the network
+	 * @param conn
+	 * @throws IOException
+	 */
+	private void write(GatewayConnection conn) throws IOException {
+		ByteBuffer sending = conn.sending;
+		if (sending.position() == 0) {
+			// take the responses added by the bus thread since the last write
+			synchronized (lock) {
+				ByteBuffer out = conn.out;
+				out.flip();
+				sending.put(out);
+				out.clear();
+				conn.sendingResponses = conn.responses;
+				conn.responses = 0;
+			}
+		}
+		sending.flip();
+		conn.channel.write(sending);
+		sending.compact();
+		boolean drained = (sending.position() == 0);
+		synchronized (lock) {
+			if (drained) {
+				conn.inFlight -= conn.sendingResponses;
+				conn.sendingResponses = 0;
+			}
+			setInterest(conn);
+		}
+		if (drained)
+			parse(conn); // frames held back while the queue was full
+	}
+
+	/**
+	 * Read while the connection may queue more requests, write while there are responses. 
+	 * Called with the gateway lock held, on the selector thread
+	 * @param conn
+	 */
+	private void setInterest(GatewayConnection conn) {
+		if (conn.closed || !conn.key.isValid())
+			return;
+		int ops = 0;
+		if (conn.inFlight < conn.depth())
+			ops |= SelectionKey.OP_READ;
+		if ((conn.out.position() > 0) || (conn.sending.position() > 0))
+			ops |= SelectionKey.OP_WRITE;
+		conn.key.interestOps(ops);
+	}
+
+	/**
+	 * Apply interest changes requested by the bus thread
+	 * @throws IOException
+	 */
+	private void updateInterest() throws IOException {
+		for (;;) {
+			GatewayConnection conn;
+			synchronized (lock) {
+				conn = dirty.pollFirst();
+				if (conn == null)
+					return;
+				conn.dirty = false;
+				setInterest(conn);
+			}
+		}
+	}
+
+	private void close(GatewayConnection conn) {
+		synchronized (lock) {
+			if (conn.closed)
+				return;
+			conn.closed = true;
+			connectionCount--;
+			if (conn.queued) {
+				ready.remove(conn);
+				conn.queued = false;
+			}
+		}
+		closeQuietly(conn.key);
+	}
+
+	private static void closeQuietly(SelectionKey key) {
+		key.cancel();
+		closeQuietly(key.channel());
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+
+	/**
+	 * Bus loop: executes one request of each ready connection in turn
+	 */
+	private void runBus() {
+		while (running) {
+			GatewayConnection conn;
+			byte[] request;
+			int length;
+			int serverId;
+			synchronized (lock) {
+				while (running && ready.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				conn = ready.pollFirst();
+				if (conn == null)
+					return;
+				// the slot is not reused until the request is removed from the queue
+				request = conn.requests[conn.head];
+				length = conn.requestLength[conn.head];
+				serverId = unitMap[request[6] & 0xFF];
+			}
+
+			int size = execute(request, length, serverId);
+
+			synchronized (lock) {
+				requestCount++;
+				conn.head = (conn.head + 1) % conn.depth();
+				conn.count--;
+				if (conn.closed)
+					continue;
+				conn.out.put(response, 0, size);
+				conn.responses++;
+				if (conn.count > 0)
+					ready.addLast(conn);
+				else
+					conn.queued = false;
+				if (!conn.dirty) {
+					conn.dirty = true;
+					dirty.addLast(conn);
+				}
+			}
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Execute a request on the serial line and build the response frame
+	 * @param request	MBAP frame
+	 * @param length	frame length
+	 * @param serverId	server id, -1 if the unit is not mapped
+	 * @return response frame length
+	 */
+	private int execute(byte[] request, int length, int serverId) {
+		// MBAP header is returned as received, with the length updated
+		System.arraycopy(request, 0, response, 0, 7);
+		int function = request[7] & 0xFF;
+		if (serverId < 0)
+			return exception(function, EX_GATEWAY_PATH_UNAVAILABLE);
+		if (!ModbusClient.isRawFunction(function))
+			return exception(function, EX_ILLEGAL_FUNCTION);
+		try {
+			client.InitRawRequest(serverId, request, 7, length - 7);
+		} catch (IllegalArgumentException e) {
+			// supported function with a wrong length, count or byte count
+			return exception(function, EX_ILLEGAL_VALUE);
+		}
+		if ((serverId == BROADCAST_ID) && !ModbusClient.isBroadcastFunction(function))
+			return exception(function, EX_GATEWAY_PATH_UNAVAILABLE);
+
+		int result;
+		try {
+			result = client.execRequest();
+		} catch (Exception e) {
+			Logger.warning("ModbusGateway", "execRequest: " + e.getMessage());
+			return exception(function, EX_GATEWAY_TARGET_FAILED);
+		}
+		if ((result != ModbusClient.RESULT_OK) && (result != ModbusClient.RESULT_EXCEPTION))
+			return exception(function, EX_GATEWAY_TARGET_FAILED);
+
+		int pduSize = client.getPduSize();
+		if (serverId == BROADCAST_ID) {
+			// no response on the line, answer like the write did: function, address, value or count
+			pduSize = (function == FN_MASK_WRITE_REGISTER) ? 7 : 5;
+		}
+		client.readFromPdu(0, pduSize, response, 7);
+		return frame(pduSize);
+	}
+
+	private int exception(int function, int code) {
+		response[7] = (byte) (function | 0x80);
+		response[8] = (byte) code;
+		return frame(2);
+	}
+
+	private int frame(int pduSize) {
+		int length = pduSize + 1; // unit id, PDU
+		response[4] = (byte) (length >> 8);
+		response[5] = (byte) length;
+		return 6 + length;
+	}
+}
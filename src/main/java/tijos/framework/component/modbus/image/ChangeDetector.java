@@ -0,0 +1,239 @@
+package tijos.framework.component.modbus.image;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ResponseListener;
+
+/**
+ * Change-of-value detection fed by read responses. Add it to the client with 
+ * {@link ModbusClient#addResponseListener(ResponseListener)}, changed points are collected 
+ * and delivered to the listeners as one batch by {@link #flush()}, usually at the end of a scan.<br>
+ * A point is reported the first time it is read, and later when it differs from the value last 
+ * reported by more than its deadbands. Bits are compared 64 at a time.<br>
+ * Not thread safe, use it from the bus thread.
+ * @author TiJOS
+ *
+ */
+public class ChangeDetector implements ResponseListener {
+
+	private final CovTable[][] devices = new CovTable[248][]; // id 1..247, tables indexed by FN_READ_* - 1
+	private final ChangeSet changes;
+	private final short[] registers = new short[MAX_READ_REGS];
+	private final long[] bits = new long[(MAX_READ_COILS + 63 + 63) >> 6]; // aligned like the table
+
+	private static final ChangeListener[] NO_LISTENERS = new ChangeListener[0];
+	private ChangeListener[] listeners = NO_LISTENERS;
+
+	/**
+	 * Initialize detector
+	 * @param capacity	maximum number of changes in a batch, a full batch is flushed at once
+	 */
+	public ChangeDetector(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException();
+		this.changes = new ChangeSet(capacity);
+	}
+
+	public void addListener(ChangeListener listener) {
+		ChangeListener[] list = new ChangeListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, list, 0, listeners.length);
+		list[listeners.length] = listener;
+		listeners = list;
+	}
+
+	public void removeListener(ChangeListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				ChangeListener[] list = new ChangeListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, list, 0, i);
+				System.arraycopy(listeners, i + 1, list, i, list.length - i);
+				listeners = list;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Watch a server, responses of other servers are ignored
+	 * @param serverId		server id
+	 * @param registerCount	number of holding and input registers
+	 * @param bitCount		number of coils and discrete inputs
+	 */
+	public void add(int serverId, int registerCount, int bitCount) {
+		devices[serverId] = new CovTable[] { 
+				new CovTable(bitCount, true), new CovTable(bitCount, true), 
+				new CovTable(registerCount, false), new CovTable(registerCount, false) };
+	}
+
+	public void remove(int serverId) {
+		devices[serverId] = null;
+	}
+
+	private CovTable registerTable(int serverId, int table, int address, int count) {
+		if ((table != FN_READ_HOLDING_REGISTERS) && (table != FN_READ_INPUT_REGISTERS))
+			throw new IllegalArgumentException("Not a register table: " + table);
+		CovTable[] device = devices[serverId];
+		if (device == null)
+			throw new IllegalArgumentException("Unknown server: " + serverId);
+		CovTable t = device[table - 1];
+		if ((address < 0) || (count < 0) || (address + count > t.size))
+			throw new IndexOutOfBoundsException();
+		return t;
+	}
+
+	/**
+	 * Set absolute deadband of registers, a change is reported if it is larger than the deadband
+	 * @param serverId
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	first register
+	 * @param count		number of registers
+	 * @param deadband	0 to report any change
+	 */
+	public void setDeadband(int serverId, int table, int address, int count, int deadband) {
+		CovTable t = registerTable(serverId, table, address, count);
+		if (t.absolute == null)
+			t.absolute = new int[t.size];
+		for (int i = 0; i < count; i++)
+			t.absolute[address + i] = deadband;
+	}
+
+	/**
+	 * Set percentage deadband of registers, relative to the value last reported. 
+	 * If both deadbands are set, a change must exceed both.
+	 * @param serverId
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	first register
+	 * @param count		number of registers
+	 * @param percent	0 to report any change
+	 */
+	public void setPercentDeadband(int serverId, int table, int address, int count, float percent) {
+		CovTable t = registerTable(serverId, table, address, count);
+		if (t.percent == null)
+			t.percent = new float[t.size];
+		for (int i = 0; i < count; i++)
+			t.percent[address + i] = percent;
+	}
+
+	/**
+	 * Set the domain in which registers are compared with their deadbands and reported, 
+	 * unsigned for counters or values above 32767. Registers are signed by default.
+	 * @param serverId
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	first register
+	 * @param count		number of registers
+	 * @param unsigned	true for 0..65535, false for -32768..32767
+	 */
+	public void setUnsigned(int serverId, int table, int address, int count, boolean unsigned) {
+		CovTable t = registerTable(serverId, table, address, count);
+		if (t.unsigned == null) {
+			if (!unsigned)
+				return;
+			t.unsigned = new long[(t.size + 63) >> 6];
+		}
+		for (int i = 0; i < count; i++) {
+			int a = address + i;
+			if (unsigned)
+				t.unsigned[a >> 6] |= 1L << (a & 63);
+			else
+				t.unsigned[a >> 6] &= ~(1L << (a & 63));
+		}
+	}
+
+	/**
+	 * Forget reported values of a server, all its points are reported again when next read
+	 * @param serverId
+	 */
+	public void reset(int serverId) {
+		CovTable[] device = devices[serverId];
+		if (device == null)
+			return;
+		for (int i = 0; i < device.length; i++) {
+			long[] known = device[i].known;
+			for (int j = 0; j < known.length; j++)
+				known[j] = 0;
+		}
+	}
+
+	@Override
+	public void onResponse(ModbusClient client, int result) {
+		if (result != ModbusClient.RESULT_OK)
+			return;
+		int fn = client.getFunction();
+		if (fn == FN_READ_WRITE_MULTIPLE_REGISTERS)
+			fn = FN_READ_HOLDING_REGISTERS;
+		if ((fn < FN_READ_COILS) || (fn > FN_READ_INPUT_REGISTERS))
+			return;
+		int id = client.getServerId() & 0xFF;
+		if ((id >= devices.length) || (devices[id] == null))
+			return;
+		CovTable t = devices[id][fn - 1];
+		int address = client.getResponseAddress();
+		int count = Math.min(client.getResponseCount(), t.size - address);
+		if ((address < 0) || (count <= 0))
+			return;
+
+		if (t.bits != null)
+			compareBits(client, id, fn, t, address, count);
+		else
+			compareRegisters(client, id, fn, t, address, count);
+	}
+
+	private void compareRegisters(ModbusClient client, int id, int fn, CovTable t, int address, int count) {
+		client.getResponseRegisters(address, registers, 0, count);
+		for (int i = 0; i < count; i++) {
+			int a = address + i;
+			int value = t.value(a, registers[i]);
+			int last = t.value(a, t.registers[a]);
+			long bit = 1L << (a & 63);
+			if ((t.known[a >> 6] & bit) != 0) {
+				if ((value == last) || !t.exceeds(a, last, value))
+					continue;
+			}
+			else
+				t.known[a >> 6] |= bit;
+			t.registers[a] = (short) value;
+			if (changes.add(id, fn, a, value))
+				flush();
+		}
+	}
+
+	private void compareBits(ModbusClient client, int id, int fn, CovTable t, int address, int count) {
+		// place the response bits at the same position in the words as in the table
+		int first = address & 63;
+		int end = first + count;
+		int words = (end + 63) >> 6;
+		client.getResponseBits(address, bits, first, count);
+		for (int j = 0; j < words; j++) {
+			long mask = -1L;
+			if (j == 0)
+				mask &= -1L << first;
+			if ((j == words - 1) && ((end & 63) != 0))
+				mask &= (1L << (end & 63)) - 1;
+			int w = (address >> 6) + j;
+			long diff = ((bits[j] ^ t.bits[w]) | ~t.known[w]) & mask;
+			if (diff == 0)
+				continue;
+			t.bits[w] = (t.bits[w] & ~diff) | (bits[j] & diff);
+			t.known[w] |= mask;
+			while (diff != 0) {
+				int b = Long.numberOfTrailingZeros(diff);
+				if (changes.add(id, fn, w * 64 + b, (int) (bits[j] >>> b) & 1))
+					flush();
+				diff &= diff - 1;
+			}
+		}
+	}
+
+	/**
+	 * Deliver collected changes to the listeners, nothing is delivered if there are none
+	 */
+	public void flush() {
+		if (changes.size() == 0)
+			return;
+		ChangeListener[] list = listeners;
+		for (int i = 0; i < list.length; i++)
+			list[i].onChanges(changes);
+		changes.clear();
+	}
+}
@@ -0,0 +1,15 @@
+package tijos.framework.component.modbus.image;
+
+/**
+ * Receives changed points from {@link ChangeDetector}, on the thread calling {@link ChangeDetector#flush()}
+ * @author TiJOS
+ *
+ */
+public interface ChangeListener {
+
+	/**
+	 * Points changed since they were last reported
+	 * @param changes	only valid during the call
+	 */
+	public void onChanges(ChangeSet changes);
+}
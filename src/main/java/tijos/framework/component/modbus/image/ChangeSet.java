@@ -0,0 +1,83 @@
+package tijos.framework.component.modbus.image;
+
+/**
+ * Batch of changed points delivered by {@link ChangeDetector}. 
+ * Preallocated and reused, only valid during {@link ChangeListener#onChanges(ChangeSet)}.
+ * @author TiJOS
+ *
+ */
+public class ChangeSet {
+
+	private final int[] serverIds;
+	private final int[] tables;
+	private final int[] addresses;
+	private final int[] values;
+	private int size;
+
+	ChangeSet(int capacity) {
+		this.serverIds = new int[capacity];
+		this.tables = new int[capacity];
+		this.addresses = new int[capacity];
+		this.values = new int[capacity];
+	}
+
+	/**
+	 * Add a change
+	 * @return true if the set is full
+	 */
+	boolean add(int serverId, int table, int address, int value) {
+		serverIds[size] = serverId;
+		tables[size] = table;
+		addresses[size] = address;
+		values[size] = value;
+		size++;
+		return size == values.length;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Number of changes
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getServerId(int index) {
+		checkIndex(index);
+		return serverIds[index];
+	}
+
+	/**
+	 * Table of a change
+	 * @param index
+	 * @return FN_READ_*
+	 */
+	public int getTable(int index) {
+		checkIndex(index);
+		return tables[index];
+	}
+
+	public int getAddress(int index) {
+		checkIndex(index);
+		return addresses[index];
+	}
+
+	/**
+	 * New value of a change
+	 * @param index
+	 * @return register value -32768..32767, 0..65535 if set unsigned in the detector, or 0/1 for bits
+	 */
+	public int getValue(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException();
+	}
+}
@@ -0,0 +1,52 @@
+package tijos.framework.component.modbus.image;
+
+/**
+ * One table of a server in {@link ChangeDetector}: last reported values and deadbands
+ * @author TiJOS
+ *
+ */
+class CovTable {
+
+	final int size;
+	final short[] registers; // null for bit tables
+	final long[] bits; // null for register tables
+	final long[] known; // bit set once a point has been reported
+	int[] absolute; // absolute deadband per register, null if none
+	float[] percent; // percentage deadband per register, null if none
+	long[] unsigned; // bit set for registers compared as 0..65535, null if all are signed
+
+	CovTable(int size, boolean bitTable) {
+		this.size = size;
+		this.registers = bitTable ? null : new short[size];
+		this.bits = bitTable ? new long[(size + 63) >> 6] : null;
+		this.known = new long[(size + 63) >> 6];
+	}
+
+	/**
+	 * Value of a register in its domain
+	 * @param address
+	 * @param raw	stored value
+	 * @return -32768..32767, or 0..65535 if the register is unsigned
+	 */
+	int value(int address, short raw) {
+		if ((unsigned != null) && ((unsigned[address >> 6] & (1L << (address & 63))) != 0))
+			return raw & 0xFFFF;
+		return raw;
+	}
+
+	/**
+	 * Check whether a register change exceeds its deadbands
+	 * @param address
+	 * @param last	last reported value, in the domain of the register
+	 * @param value	new value, in the domain of the register
+	 * @return
+	 */
+	boolean exceeds(int address, int last, int value) {
+		int delta = Math.abs(value - last);
+		if ((absolute != null) && (delta <= absolute[address]))
+			return false;
+		if ((percent != null) && (delta <= Math.abs(last) * percent[address] / 100f))
+			return false;
+		return true;
+	}
+}
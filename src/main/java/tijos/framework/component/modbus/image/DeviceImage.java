@@ -0,0 +1,209 @@
+package tijos.framework.component.modbus.image;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+
+/**
+ * Last values read from one server: coils, discrete inputs, holding and input registers. 
+ * Updated by the polling thread, read by any thread. Each read returns a consistent copy 
+ * of the range, taken between two updates of the table. A reader holds the table only for 
+ * its copy, so it delays an update by at most one copy.<br>
+ * Tables are divided into blocks of {@link #BLOCK_REGISTERS} registers or {@link #BLOCK_BITS} bits, 
+ * each with its own update sequence number and timestamp.
+ * @author TiJOS
+ *
+ */
+public class DeviceImage {
+
+	public static final int BLOCK_REGISTERS = 64;
+	public static final int BLOCK_BITS = 512;
+
+	private final int serverId;
+	private final ImageTable coils;
+	private final ImageTable discreteInputs;
+	private final ImageTable holdings;
+	private final ImageTable inputs;
+
+	/**
+	 * Initialize image, all values are 0 and never updated
+	 * @param serverId		server id
+	 * @param registerCount	number of holding and input registers
+	 * @param bitCount		number of coils and discrete inputs
+	 */
+	public DeviceImage(int serverId, int registerCount, int bitCount) {
+		this.serverId = serverId;
+		this.coils = new ImageTable(bitCount, BLOCK_BITS, true);
+		this.discreteInputs = new ImageTable(bitCount, BLOCK_BITS, true);
+		this.holdings = new ImageTable(registerCount, BLOCK_REGISTERS, false);
+		this.inputs = new ImageTable(registerCount, BLOCK_REGISTERS, false);
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	/**
+	 * Number of registers or bits of a table
+	 * @param table	FN_READ_*
+	 * @return
+	 */
+	public int getSize(int table) {
+		return table(table).size;
+	}
+
+	private ImageTable table(int table) {
+		switch (table) {
+		case FN_READ_COILS:
+			return coils;
+		case FN_READ_DISCRETE_INPUTS:
+			return discreteInputs;
+		case FN_READ_HOLDING_REGISTERS:
+			return holdings;
+		case FN_READ_INPUT_REGISTERS:
+			return inputs;
+		default:
+			throw new IllegalArgumentException("Invalid table: " + table);
+		}
+	}
+
+	private ImageTable registerTable(int table) {
+		ImageTable t = table(table);
+		if (t.registers == null)
+			throw new IllegalArgumentException("Not a register table: " + table);
+		return t;
+	}
+
+	private ImageTable bitTable(int table) {
+		ImageTable t = table(table);
+		if (t.bits == null)
+			throw new IllegalArgumentException("Not a bit table: " + table);
+		return t;
+	}
+
+	/**
+	 * Copy a successful read response of this server into the image. 
+	 * Values beyond the size of the image are ignored, other responses are ignored.
+	 * @param client	client holding the response
+	 */
+	public void update(ModbusClient client) {
+		int fn = client.getFunction();
+		if (fn == FN_READ_WRITE_MULTIPLE_REGISTERS)
+			fn = FN_READ_HOLDING_REGISTERS;
+		if ((fn < FN_READ_COILS) || (fn > FN_READ_INPUT_REGISTERS))
+			return;
+		ImageTable t = table(fn);
+		int address = client.getResponseAddress();
+		int count = Math.min(client.getResponseCount(), t.size - address);
+		if ((address < 0) || (count <= 0))
+			return;
+
+		long now = System.currentTimeMillis();
+		synchronized (t) {
+			if (t.bits != null)
+				client.getResponseBits(address, t.bits, address, count);
+			else
+				client.getResponseRegisters(address, t.registers, address, count);
+			t.touch(address, count, now);
+		}
+	}
+
+	/**
+	 * Copy consecutive registers
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	address of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of registers
+	 * @return time of the oldest update of the range in ms, 0 if a part was never updated
+	 */
+	public long readRegisters(int table, int address, short[] dest, int destOffset, int count) {
+		ImageTable t = registerTable(table);
+		t.checkRange(address, count);
+		synchronized (t) {
+			System.arraycopy(t.registers, address, dest, destOffset, count);
+			return t.oldest(address, count);
+		}
+	}
+
+	/**
+	 * Copy consecutive bits
+	 * @param table		FN_READ_COILS or FN_READ_DISCRETE_INPUTS
+	 * @param address	address of the first bit
+	 * @param dest		bit i is bit (i &amp; 63) of dest[i &gt;&gt; 6]
+	 * @param destBit	first bit in dest
+	 * @param count		number of bits
+	 * @return time of the oldest update of the range in ms, 0 if a part was never updated
+	 */
+	public long readBits(int table, int address, long[] dest, int destBit, int count) {
+		ImageTable t = bitTable(table);
+		t.checkRange(address, count);
+		if ((destBit < 0) || (destBit + count > dest.length * 64))
+			throw new IndexOutOfBoundsException();
+		synchronized (t) {
+			ImageTable.copyBits(t.bits, address, dest, destBit, count);
+			return t.oldest(address, count);
+		}
+	}
+
+	/**
+	 * Get one register
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address
+	 * @param unsigned	0..65535 or -32768..32767
+	 * @return
+	 */
+	public int getRegister(int table, int address, boolean unsigned) {
+		ImageTable t = registerTable(table);
+		t.checkRange(address, 1);
+		int value;
+		synchronized (t) {
+			value = t.registers[address];
+		}
+		return unsigned ? (value & 0xFFFF) : value;
+	}
+
+	/**
+	 * Get one bit
+	 * @param table		FN_READ_COILS or FN_READ_DISCRETE_INPUTS
+	 * @param address
+	 * @return
+	 */
+	public boolean getBit(int table, int address) {
+		ImageTable t = bitTable(table);
+		t.checkRange(address, 1);
+		long word;
+		synchronized (t) {
+			word = t.bits[address >> 6];
+		}
+		return (word & (1L << (address & 63))) != 0;
+	}
+
+	/**
+	 * Number of updates of the block holding an address, to detect changes since a previous read
+	 * @param table		FN_READ_*
+	 * @param address
+	 * @return
+	 */
+	public int getSequence(int table, int address) {
+		ImageTable t = table(table);
+		t.checkRange(address, 1);
+		synchronized (t) {
+			return t.sequence[address / t.blockSize];
+		}
+	}
+
+	/**
+	 * Time of the last update of the block holding an address
+	 * @param table		FN_READ_*
+	 * @param address
+	 * @return time in ms, 0 if never updated
+	 */
+	public long getTimestamp(int table, int address) {
+		ImageTable t = table(table);
+		t.checkRange(address, 1);
+		synchronized (t) {
+			return t.timestamp[address / t.blockSize];
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package tijos.framework.component.modbus.image;
+
+/**
+ * One table of a {@link DeviceImage}, registers in short[] or bits packed in long[]. 
+ * Guarded by its monitor, held by writers for the update and by readers for their copy only.
+ * @author TiJOS
+ *
+ */
+class ImageTable {
+
+	final int size;
+	final int blockSize;
+	final short[] registers; // null for bit tables
+	final long[] bits; // null for register tables, bit i is bit (i & 63) of bits[i >> 6]
+	final int[] sequence; // per block, number of updates
+	final long[] timestamp; // per block, time of the last update in ms, 0 if never updated
+
+	ImageTable(int size, int blockSize, boolean bitTable) {
+		this.size = size;
+		this.blockSize = blockSize;
+		this.registers = bitTable ? null : new short[size];
+		this.bits = bitTable ? new long[(size + 63) >> 6] : null;
+		int blocks = (size + blockSize - 1) / blockSize;
+		this.sequence = new int[blocks];
+		this.timestamp = new long[blocks];
+	}
+
+	void checkRange(int address, int count) {
+		if ((address < 0) || (count < 0) || (address + count > size))
+			throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Mark blocks of a range as updated, called with the table monitor held
+	 * @param address
+	 * @param count
+	 * @param now
+	 */
+	void touch(int address, int count, long now) {
+		int last = (address + count - 1) / blockSize;
+		for (int b = address / blockSize; b <= last; b++) {
+			sequence[b]++;
+			timestamp[b] = now;
+		}
+	}
+
+	/**
+	 * Oldest update time of the blocks of a range, 0 if any was never updated
+	 * @param address
+	 * @param count
+	 * @return
+	 */
+	long oldest(int address, int count) {
+		if (count == 0)
+			return 0;
+		long t = Long.MAX_VALUE;
+		int last = (address + count - 1) / blockSize;
+		for (int b = address / blockSize; b <= last; b++) {
+			if (timestamp[b] < t)
+				t = timestamp[b];
+		}
+		return t;
+	}
+
+	/**
+	 * Copy bits between packed arrays, up to one word at a time
+	 * @param src
+	 * @param srcBit
+	 * @param dest
+	 * @param destBit
+	 * @param count
+	 */
+	static void copyBits(long[] src, int srcBit, long[] dest, int destBit, int count) {
+		while (count > 0) {
+			int n = Math.min(count, 64 - (destBit & 63));
+			int avail = 64 - (srcBit & 63);
+			long v = src[srcBit >> 6] >>> (srcBit & 63);
+			if (avail < n)
+				v |= src[(srcBit >> 6) + 1] << avail;
+			long mask = (n == 64) ? -1L : ((1L << n) - 1);
+			int word = destBit >> 6;
+			int shift = destBit & 63;
+			dest[word] = (dest[word] & ~(mask << shift)) | ((v & mask) << shift);
+			srcBit += n;
+			destBit += n;
+			count -= n;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package tijos.framework.component.modbus.image;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ResponseListener;
+
+/**
+ * Process image of the servers on a bus, one {@link DeviceImage} per server. 
+ * Add it to the client with {@link ModbusClient#addResponseListener(ResponseListener)}, 
+ * successful read responses then update the image of the server automatically.
+ * @author TiJOS
+ *
+ */
+public class ProcessImage implements ResponseListener {
+
+	private final DeviceImage[] devices = new DeviceImage[248]; // id 1..247
+
+	/**
+	 * Create and add the image of a server
+	 * @param serverId		server id
+	 * @param registerCount	number of holding and input registers
+	 * @param bitCount		number of coils and discrete inputs
+	 * @return
+	 */
+	public DeviceImage add(int serverId, int registerCount, int bitCount) {
+		DeviceImage device = new DeviceImage(serverId, registerCount, bitCount);
+		add(device);
+		return device;
+	}
+
+	public synchronized void add(DeviceImage device) {
+		devices[device.getServerId()] = device;
+	}
+
+	public synchronized void remove(int serverId) {
+		devices[serverId] = null;
+	}
+
+	public synchronized DeviceImage get(int serverId) {
+		return devices[serverId];
+	}
+
+	@Override
+	public void onResponse(ModbusClient client, int result) {
+		if (result != ModbusClient.RESULT_OK)
+			return;
+		int id = client.getServerId() & 0xFF;
+		if (id >= devices.length)
+			return;
+		DeviceImage device = get(id);
+		if (device != null)
+			device.update(client);
+	}
+}
@@ -0,0 +1,94 @@
+package tijos.framework.component.modbus.planner;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+
+/**
+ * Requests created by {@link ReadPlanner} and the points each of them covers. 
+ * A plan can be executed any number of times.
+ * @author TiJOS
+ *
+ */
+public class ReadPlan {
+
+	private final ModbusRequest[] requests;
+	private final ReadPoint[] points; // sorted by server, table, address
+	private final int[] firstPoint; // index of first point of each request, one more entry for the end
+
+	ReadPlan(ModbusRequest[] requests, ReadPoint[] points, int[] firstPoint) {
+		this.requests = requests;
+		this.points = points;
+		this.firstPoint = firstPoint;
+	}
+
+	/**
+	 * Number of requests
+	 * @return
+	 */
+	public int size() {
+		return requests.length;
+	}
+
+	public ModbusRequest getRequest(int index) {
+		return requests[index];
+	}
+
+	/**
+	 * Number of points
+	 * @return
+	 */
+	public int getPointCount() {
+		return points.length;
+	}
+
+	/**
+	 * Execute all requests and update the points 
+	 * @param client
+	 * @return number of requests which failed
+	 * @throws Exception
+	 */
+	public int execute(ModbusClient client) throws Exception {
+		int failed = 0;
+		for (int i = 0; i < requests.length; i++) {
+			requests[i].initRequest(client);
+			if (update(i, client, client.execRequest()) != ModbusClient.RESULT_OK)
+				failed++;
+		}
+		return failed;
+	}
+
+	/**
+	 * Update the points of a request executed elsewhere, e.g. by a scheduler
+	 * @param index		request index
+	 * @param client	client holding the response
+	 * @param result	RESULT_* of the request
+	 * @return result
+	 */
+	public int update(int index, ModbusClient client, int result) {
+		ModbusRequest request = requests[index];
+		boolean bits = points[firstPoint[index]].isBit();
+		for (int i = firstPoint[index]; i < firstPoint[index + 1]; i++) {
+			ReadPoint point = points[i];
+			if (result != ModbusClient.RESULT_OK)
+				point.update(0, result);
+			else if (bits)
+				point.update(client.getResponseBit(point.getAddress()) ? 1 : 0, result);
+			else
+				point.update(client.getResponseRegister(point.getAddress(), true), result);
+		}
+		return result;
+	}
+
+	/**
+	 * Index of the request which reads a point
+	 * @param request
+	 * @return request index, -1 if the request is not part of the plan
+	 */
+	public int indexOf(ModbusRequest request) {
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i] == request)
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,146 @@
+package tijos.framework.component.modbus.planner;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+
+/**
+ * Merges scattered points into the fewest read requests. 
+ * Neighbouring points of the same server and table share a request if the gap between 
+ * them is not larger than the gap threshold, the request stays within MAX_READ_REGS or 
+ * MAX_READ_COILS and the gap does not contain a hole, i.e. addresses the device rejects.
+ * @author TiJOS
+ *
+ */
+public class ReadPlanner {
+
+	private static final Comparator<ReadPoint> ORDER = new Comparator<ReadPoint>() {
+		@Override
+		public int compare(ReadPoint a, ReadPoint b) {
+			if (a.getServerId() != b.getServerId())
+				return a.getServerId() - b.getServerId();
+			if (a.getTable() != b.getTable())
+				return a.getTable() - b.getTable();
+			return a.getAddress() - b.getAddress();
+		}
+	};
+
+	private int maxRegisterGap;
+	private int maxBitGap;
+
+	// holes: server id, table, first address, last address
+	private int[] holes = new int[0];
+	private int holeCount;
+
+	/**
+	 * Initialize planner
+	 * @param maxRegisterGap	number of unused registers which may be read to join two points
+	 * @param maxBitGap			number of unused coils or inputs which may be read to join two points
+	 */
+	public ReadPlanner(int maxRegisterGap, int maxBitGap) {
+		if ((maxRegisterGap < 0) || (maxBitGap < 0))
+			throw new IllegalArgumentException();
+		this.maxRegisterGap = maxRegisterGap;
+		this.maxBitGap = maxBitGap;
+	}
+
+	/**
+	 * Addresses of a device which must not be read to bridge a gap
+	 * @param serverId
+	 * @param table		read function code
+	 * @param address	start address
+	 * @param count		number of registers or bits
+	 */
+	public void addHole(int serverId, int table, int address, int count) {
+		if (count < 1)
+			throw new IllegalArgumentException();
+		if ((holeCount + 1) * 4 > holes.length) {
+			int[] list = new int[Math.max(16, holes.length * 2)];
+			System.arraycopy(holes, 0, list, 0, holeCount * 4);
+			holes = list;
+		}
+		int i = holeCount * 4;
+		holes[i] = serverId;
+		holes[i + 1] = table;
+		holes[i + 2] = address;
+		holes[i + 3] = address + count - 1;
+		holeCount++;
+	}
+
+	private boolean gapHasHole(int serverId, int table, int first, int last) {
+		for (int i = 0; i < holeCount * 4; i += 4) {
+			if ((holes[i] == serverId) && (holes[i + 1] == table) && (holes[i + 2] <= last) && (holes[i + 3] >= first))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Create requests for the points, duplicate points (same server, table and address) are read once
+	 * @param points
+	 * @return plan
+	 */
+	public ReadPlan plan(ReadPoint[] points) {
+		ReadPoint[] sorted = new ReadPoint[points.length];
+		System.arraycopy(points, 0, sorted, 0, points.length);
+		Arrays.sort(sorted, ORDER);
+
+		int n = sorted.length;
+
+		ModbusRequest[] requests = new ModbusRequest[n];
+		int[] firstPoint = new int[n + 1];
+		int count = 0;
+		int i = 0;
+		while (i < n) {
+			ReadPoint first = sorted[i];
+			boolean bits = first.isBit();
+			int maxCount = bits ? MAX_READ_COILS : MAX_READ_REGS;
+			int maxGap = bits ? maxBitGap : maxRegisterGap;
+			int end = first.getAddress(); // last address in the request
+
+			int j = i + 1;
+			while (j < n) {
+				ReadPoint next = sorted[j];
+				if ((next.getServerId() != first.getServerId()) || (next.getTable() != first.getTable()))
+					break;
+				if (next.getAddress() - end - 1 > maxGap)
+					break;
+				if (next.getAddress() - first.getAddress() + 1 > maxCount)
+					break;
+				if ((next.getAddress() > end + 1) 
+						&& gapHasHole(first.getServerId(), first.getTable(), end + 1, next.getAddress() - 1))
+					break;
+				end = next.getAddress();
+				j++;
+			}
+
+			requests[count] = createRequest(first.getServerId(), first.getTable(), first.getAddress(), end - first.getAddress() + 1);
+			firstPoint[count] = i;
+			count++;
+			i = j;
+		}
+		firstPoint[count] = n;
+
+		ModbusRequest[] list = new ModbusRequest[count];
+		System.arraycopy(requests, 0, list, 0, count);
+		int[] index = new int[count + 1];
+		System.arraycopy(firstPoint, 0, index, 0, count + 1);
+		return new ReadPlan(list, sorted, index);
+	}
+
+	private static ModbusRequest createRequest(int serverId, int table, int address, int count) {
+		switch (table) {
+		case FN_READ_COILS:
+			return ModbusRequest.readCoils(serverId, address, count);
+		case FN_READ_DISCRETE_INPUTS:
+			return ModbusRequest.readDInputs(serverId, address, count);
+		case FN_READ_HOLDING_REGISTERS:
+			return ModbusRequest.readHoldings(serverId, address, count);
+		default:
+			return ModbusRequest.readAInputs(serverId, address, count);
+		}
+	}
+}
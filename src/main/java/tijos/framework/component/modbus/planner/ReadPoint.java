@@ -0,0 +1,95 @@
+package tijos.framework.component.modbus.planner;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+
+/**
+ * A single register or bit to be read through a {@link ReadPlan}, holds the last value read
+ * @author TiJOS
+ *
+ */
+public class ReadPoint {
+
+	private final int serverId;
+	private final int table;
+	private final int address;
+
+	private int value;
+	private int result = -1; // RESULT_* of the last read, -1 if never read
+
+	/**
+	 * Initialize point
+	 * @param serverId	server id
+	 * @param table		FN_READ_COILS, FN_READ_DISCRETE_INPUTS, FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	register or bit address
+	 */
+	public ReadPoint(int serverId, int table, int address) {
+		if ((table < FN_READ_COILS) || (table > FN_READ_INPUT_REGISTERS))
+			throw new IllegalArgumentException("Invalid table: " + table);
+		if ((address < 0) || (address > 0xFFFF))
+			throw new IllegalArgumentException("Invalid address: " + address);
+		this.serverId = serverId;
+		this.table = table;
+		this.address = address;
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	/**
+	 * Table as read function code
+	 * @return
+	 */
+	public int getTable() {
+		return table;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	/**
+	 * Point is a coil or discrete input
+	 * @return
+	 */
+	public boolean isBit() {
+		return (table == FN_READ_COILS) || (table == FN_READ_DISCRETE_INPUTS);
+	}
+
+	/**
+	 * Last read was successful
+	 * @return
+	 */
+	public boolean isValid() {
+		return result == ModbusClient.RESULT_OK;
+	}
+
+	/**
+	 * Result of the request which read the point last
+	 * @return RESULT_*, -1 if never read
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	/**
+	 * Register value, 1 or 0 for bits
+	 * @param unsigned
+	 * @return
+	 */
+	public int getValue(boolean unsigned) {
+		return unsigned ? value & 0xFFFF : (short) value;
+	}
+
+	public boolean getBit() {
+		return value != 0;
+	}
+
+	void update(int value, int result) {
+		if (result == ModbusClient.RESULT_OK)
+			this.value = value;
+		this.result = result;
+	}
+}
@@ -0,0 +1,264 @@
+package tijos.framework.component.modbus.planner;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+
+/**
+ * Collects single register and coil writes per server and sends them as few 
+ * WRITE MULTIPLE REGISTERS / WRITE MULTIPLE COILS requests as possible. 
+ * A later write to the same address replaces the pending one. Neighbouring writes are merged 
+ * within MAX_WRITE_REGS or MAX_WRITE_COILS. A gap between them is bridged only if it 
+ * is not larger than the gap threshold and every address in it was written before through this 
+ * buffer, the gap is then filled with the values last written.<br>
+ * Pending writes are flushed when there are too many of them, when the oldest is too old, 
+ * or by {@link #flush()}. Not thread safe, use it from the thread which owns the client.
+ * @author TiJOS
+ *
+ */
+public class WriteBuffer {
+
+	private final ModbusClient client;
+	private final WriteTable[][] servers = new WriteTable[248][]; // id 1..247, holding registers and coils
+	private final int[] registers = new int[MAX_WRITE_REGS];
+	private final long[] coils = new long[(MAX_WRITE_COILS + 63) >> 6];
+
+	private int maxRegisterGap;
+	private int maxCoilGap;
+	private int maxPending = Integer.MAX_VALUE;
+	private long maxAge = Long.MAX_VALUE;
+	private boolean skipUnchanged;
+	private int maxRetries = -1;
+
+	private int pendingCount;
+	private long droppedCount;
+	private long oldest; // time of the first write since the buffer was empty
+
+	/**
+	 * Initialize buffer
+	 * @param client		client to send the requests
+	 * @param maxRegisterGap	number of registers which may be rewritten to join two writes
+	 * @param maxCoilGap		number of coils which may be rewritten to join two writes
+	 */
+	public WriteBuffer(ModbusClient client, int maxRegisterGap, int maxCoilGap) {
+		if ((maxRegisterGap < 0) || (maxCoilGap < 0))
+			throw new IllegalArgumentException();
+		this.client = client;
+		this.maxRegisterGap = maxRegisterGap;
+		this.maxCoilGap = maxCoilGap;
+	}
+
+	/**
+	 * Flush automatically when the buffer holds too many writes or the oldest is too old. 
+	 * The age is checked on each write and by {@link #flushIfDue()}
+	 * @param maxPending	number of pending writes
+	 * @param maxAge		age of the oldest pending write in ms
+	 */
+	public void setFlushPolicy(int maxPending, long maxAge) {
+		if ((maxPending < 1) || (maxAge < 0))
+			throw new IllegalArgumentException();
+		this.maxPending = maxPending;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Drop writes of values which were already written successfully through this buffer
+	 * @param skip
+	 */
+	public void setSkipUnchanged(boolean skip) {
+		this.skipUnchanged = skip;
+	}
+
+	/**
+	 * Limit the flushes a failed write is retried in, so a dead server does not delay 
+	 * every later flush by its timeout. The writes are dropped when the limit is reached
+	 * @param retries	flushes after the first failed one, 0 to drop at once, -1 to retry until written
+	 */
+	public void setMaxRetries(int retries) {
+		if (retries < -1)
+			throw new IllegalArgumentException();
+		this.maxRetries = retries;
+	}
+
+	/**
+	 * Number of writes dropped after failing, see {@link #setMaxRetries(int)}
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Accept writes for a server
+	 * @param serverId
+	 * @param registerCount	number of holding registers
+	 * @param coilCount		number of coils
+	 */
+	public void add(int serverId, int registerCount, int coilCount) {
+		servers[serverId] = new WriteTable[] { new WriteTable(registerCount, false), new WriteTable(coilCount, true) };
+	}
+
+	private WriteTable table(int serverId, int index, int address) {
+		WriteTable[] tables = servers[serverId];
+		if (tables == null)
+			throw new IllegalArgumentException("Unknown server: " + serverId);
+		WriteTable t = tables[index];
+		if ((address < 0) || (address >= t.size))
+			throw new IndexOutOfBoundsException();
+		return t;
+	}
+
+	/**
+	 * Queue a holding register write
+	 * @param serverId
+	 * @param address
+	 * @param value
+	 * @throws Exception	if the write triggered a flush which failed
+	 */
+	public void writeRegister(int serverId, int address, int value) throws Exception {
+		put(table(serverId, 0, address), address, value);
+	}
+
+	/**
+	 * Queue a coil write
+	 * @param serverId
+	 * @param address
+	 * @param value
+	 * @throws Exception	if the write triggered a flush which failed
+	 */
+	public void writeCoil(int serverId, int address, boolean value) throws Exception {
+		put(table(serverId, 1, address), address, value ? 1 : 0);
+	}
+
+	private void put(WriteTable t, int address, int value) throws Exception {
+		int before = t.pendingCount;
+		t.put(address, value, skipUnchanged);
+		if ((pendingCount == 0) && (t.pendingCount > before))
+			oldest = System.currentTimeMillis();
+		pendingCount += t.pendingCount - before;
+		if (pendingCount >= maxPending)
+			flush();
+		else
+			flushIfDue();
+	}
+
+	/**
+	 * Number of pending writes
+	 * @return
+	 */
+	public int getPendingCount() {
+		return pendingCount;
+	}
+
+	/**
+	 * Drop the pending writes of a server
+	 * @param serverId
+	 */
+	public void clear(int serverId) {
+		WriteTable[] tables = servers[serverId];
+		if (tables == null)
+			return;
+		for (int i = 0; i < tables.length; i++) {
+			pendingCount -= tables[i].pendingCount;
+			tables[i].clear();
+		}
+	}
+
+	/**
+	 * Flush if the oldest pending write is older than the maximum age
+	 * @return number of failed requests
+	 * @throws Exception
+	 */
+	public int flushIfDue() throws Exception {
+		if ((pendingCount > 0) && (System.currentTimeMillis() - oldest >= maxAge))
+			return flush();
+		return 0;
+	}
+
+	/**
+	 * Send all pending writes. Writes of failed requests stay pending up to the retry limit.
+	 * @return number of failed requests
+	 * @throws Exception	thrown by the client, the pending writes are consistent
+	 */
+	public int flush() throws Exception {
+		int failed = 0;
+		for (int id = 0; (id < servers.length) && (pendingCount > 0); id++) {
+			WriteTable[] tables = servers[id];
+			if (tables == null)
+				continue;
+			for (int i = 0; i < tables.length; i++) {
+				WriteTable t = tables[i];
+				int before = t.pendingCount;
+				try {
+					if (before > 0)
+						failed += flush(id, t);
+				} finally {
+					pendingCount -= before - t.pendingCount;
+				}
+			}
+		}
+		oldest = System.currentTimeMillis();
+		return failed;
+	}
+
+	private int flush(int serverId, WriteTable t) throws Exception {
+		int max = t.bitTable ? MAX_WRITE_COILS : MAX_WRITE_REGS;
+		int maxGap = t.bitTable ? maxCoilGap : maxRegisterGap;
+		boolean drop = (maxRetries >= 0) && (t.failures >= maxRetries);
+		int failed = 0;
+		int start = t.nextPending(0);
+		try {
+			while (start >= 0) {
+				int end = start + 1;
+				int next = t.nextPending(end);
+				while ((next >= 0) && (next - start < max) && (next - end <= maxGap) && t.isKnown(end, next)) {
+					end = next + 1;
+					next = t.nextPending(end);
+				}
+				boolean ok = false;
+				try {
+					ok = (send(serverId, t, start, end) == ModbusClient.RESULT_OK);
+				} finally {
+					if (ok)
+						t.written(start, end);
+					else {
+						failed++;
+						if (drop)
+							droppedCount += t.drop(start, end);
+					}
+				}
+				start = next;
+			}
+		} finally {
+			t.failures = ((failed == 0) || drop) ? 0 : t.failures + 1;
+		}
+		return failed;
+	}
+
+	private int send(int serverId, WriteTable t, int start, int end) throws Exception {
+		int count = end - start;
+		if (t.bitTable) {
+			if (count == 1) 
+				client.InitWriteCoilRequest(serverId, start, t.value(start) != 0);
+			else {
+				for (int i = 0; i < coils.length; i++)
+					coils[i] = 0;
+				for (int i = 0; i < count; i++) {
+					if (t.value(start + i) != 0)
+						coils[i >> 6] |= 1L << (i & 63);
+				}
+				client.InitWriteCoilsRequest(serverId, start, coils, count);
+			}
+		}
+		else {
+			if (count == 1)
+				client.InitWriteRegisterRequest(serverId, start, t.value(start));
+			else {
+				for (int i = 0; i < count; i++)
+					registers[i] = t.value(start + i);
+				client.InitWriteRegistersRequest(serverId, start, registers, count);
+			}
+		}
+		return client.execRequest();
+	}
+}
@@ -0,0 +1,170 @@
+package tijos.framework.component.modbus.planner;
+
+/**
+ * Holding registers or coils of one server in {@link WriteBuffer}: 
+ * pending values and values last written successfully
+ * @author TiJOS
+ *
+ */
+class WriteTable {
+
+	final int size;
+	final boolean bitTable;
+	final long[] pending; // bit set if a write is pending
+	final long[] known; // bit set if the value was written successfully
+	final short[] values; // pending register values
+	final short[] last; // last written register values
+	final long[] bitValues; // pending coil values
+	final long[] lastBits; // last written coil values
+	int pendingCount;
+	int failures; // consecutive flushes with failed requests
+
+	WriteTable(int size, boolean bitTable) {
+		int words = (size + 63) >> 6;
+		this.size = size;
+		this.bitTable = bitTable;
+		this.pending = new long[words];
+		this.known = new long[words];
+		this.values = bitTable ? null : new short[size];
+		this.last = bitTable ? null : new short[size];
+		this.bitValues = bitTable ? new long[words] : null;
+		this.lastBits = bitTable ? new long[words] : null;
+	}
+
+	static boolean test(long[] set, int address) {
+		return (set[address >> 6] & (1L << (address & 63))) != 0;
+	}
+
+	static void set(long[] set, int address, boolean value) {
+		if (value)
+			set[address >> 6] |= 1L << (address & 63);
+		else
+			set[address >> 6] &= ~(1L << (address & 63));
+	}
+
+	/**
+	 * Add a write, an earlier pending write to the address is replaced
+	 * @param address
+	 * @param value
+	 * @param skipUnchanged	drop the write if the value was already written
+	 */
+	void put(int address, int value, boolean skipUnchanged) {
+		// registers compare as unsigned 16 bit, 65535 and -1 are the same value
+		boolean unchanged = test(known, address) && ((value & 0xFFFF) == lastValue(address));
+		if (skipUnchanged && unchanged) {
+			if (test(pending, address)) {
+				set(pending, address, false);
+				pendingCount--;
+			}
+			return;
+		}
+		if (!test(pending, address)) {
+			set(pending, address, true);
+			pendingCount++;
+		}
+		if (bitTable)
+			set(bitValues, address, value != 0);
+		else
+			values[address] = (short) value;
+	}
+
+	/**
+	 * Value last written
+	 * @param address
+	 * @return 0..65535, 0 or 1 for coils
+	 */
+	int lastValue(int address) {
+		if (bitTable)
+			return test(lastBits, address) ? 1 : 0;
+		return last[address] & 0xFFFF;
+	}
+
+	/**
+	 * Value to be written, pending or last written
+	 * @param address
+	 * @return
+	 */
+	int value(int address) {
+		if (!test(pending, address))
+			return lastValue(address);
+		if (bitTable)
+			return test(bitValues, address) ? 1 : 0;
+		return values[address];
+	}
+
+	/**
+	 * First pending address at or after an address
+	 * @param from
+	 * @return -1 if none
+	 */
+	int nextPending(int from) {
+		if (from >= size)
+			return -1;
+		int w = from >> 6;
+		long word = pending[w] & (-1L << (from & 63));
+		while (word == 0) {
+			if (++w == pending.length)
+				return -1;
+			word = pending[w];
+		}
+		return w * 64 + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Check that all addresses of a range have been written, so they can fill a gap
+	 * @param from
+	 * @param to	exclusive
+	 * @return
+	 */
+	boolean isKnown(int from, int to) {
+		for (int a = from; a < to; a++) {
+			if (!test(known, a))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A range has been written successfully
+	 * @param from
+	 * @param to	exclusive
+	 */
+	void written(int from, int to) {
+		for (int a = from; a < to; a++) {
+			if (!test(pending, a))
+				continue;
+			if (bitTable)
+				set(lastBits, a, test(bitValues, a));
+			else
+				last[a] = values[a];
+			set(known, a, true);
+			set(pending, a, false);
+			pendingCount--;
+		}
+	}
+
+	/**
+	 * Drop the pending writes of a range
+	 * @param from
+	 * @param to	exclusive
+	 * @return number of writes dropped
+	 */
+	int drop(int from, int to) {
+		int dropped = 0;
+		for (int a = from; a < to; a++) {
+			if (test(pending, a)) {
+				set(pending, a, false);
+				pendingCount--;
+				dropped++;
+			}
+		}
+		return dropped;
+	}
+
+	void clear() {
+		for (int i = 0; i < pending.length; i++)
+			pending[i] = 0;
+		pendingCount = 0;
+		failures = 0;
+	}
+}
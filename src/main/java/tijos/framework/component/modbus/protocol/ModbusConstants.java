@@ -10,10 +10,12 @@ public final class ModbusConstants {
 	private ModbusConstants() {}
 	
 	public static final int MAX_PDU_SIZE = 253;
+	public static final int BROADCAST_ID = 0; // server id of broadcast writes, never answered
 	public static final int MAX_READ_COILS = 2000;
 	public static final int MAX_READ_REGS = 125;
 	public static final int MAX_WRITE_COILS = 1968;
 	public static final int MAX_WRITE_REGS = 123;
+	public static final int MAX_READ_WRITE_REGS = 121; // registers written by FN_READ_WRITE_MULTIPLE_REGISTERS
 
 	/**
 	 * MODBUS FUNCTION CODES
@@ -26,5 +28,25 @@ public final class ModbusConstants {
 	public static final byte FN_WRITE_SINGLE_REGISTER = 6;
 	public static final byte FN_WRITE_MULTIPLE_COILS = 15;
 	public static final byte FN_WRITE_MULTIPLE_REGISTERS = 16;
+	public static final byte FN_MASK_WRITE_REGISTER = 22;
+	public static final byte FN_READ_WRITE_MULTIPLE_REGISTERS = 23;
+
+	/**
+	 * MODBUS EXCEPTION CODES
+	 */
+	public static final int EX_ILLEGAL_FUNCTION = 1;
+	public static final int EX_ILLEGAL_ADDRESS = 2;
+	public static final int EX_ILLEGAL_VALUE = 3;
+	public static final int EX_SERVER_FAILURE = 4;
+	public static final int EX_GATEWAY_PATH_UNAVAILABLE = 0x0A;
+	public static final int EX_GATEWAY_TARGET_FAILED = 0x0B; // target device failed to respond
+
+	/**
+	 * BYTE ORDERS of 32 and 64 bit values in registers, A is the most significant byte
+	 */
+	public static final int ORDER_ABCD = 0; // big-endian, standard for MODBUS
+	public static final int ORDER_CDAB = 1; // word swapped
+	public static final int ORDER_BADC = 2; // byte swapped
+	public static final int ORDER_DCBA = 3; // little-endian
 	
 }
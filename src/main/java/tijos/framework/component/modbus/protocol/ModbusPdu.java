@@ -2,6 +2,8 @@ package tijos.framework.component.modbus.protocol;
 
 import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
 
+import java.util.BitSet;
+
 /**
  * MODBUS PDU 
  * @author TiJOS
@@ -13,7 +15,7 @@ public class ModbusPdu {
 	protected int pduSize;
 	
 	public static final String toHex(byte[] data, int offset, int length) {
-		if ((data.length == 0) || (offset > data.length) || (length < offset))
+		if ((data.length == 0) || (offset > data.length) || (length <= 0))
 			return "";
 		length = Math.min(data.length - offset, length);
 		StringBuffer buf = new StringBuffer(length * 3);
@@ -67,14 +69,62 @@ public class ModbusPdu {
 		0x8201, 0x42C0, 0x4380, 0x8341, 0x4100, 0x81C1, 0x8081, 0x4040,
 	};
 
+	/**
+	 * Tables for slicing-by-4: CrcTable advanced by 1, 2 and 3 more zero bytes, 
+	 * 16 bit values fit in char and take half the memory of int 
+	 */
+	private static final char[] CrcTable4 = new char[3 * 256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = CrcTable[i];
+			for (int k = 0; k < 3; k++) {
+				crc = (crc >>> 8) ^ CrcTable[crc & 0xff];
+				CrcTable4[k * 256 + i] = (char) crc;
+			}
+		}
+	}
+
 	public static final int calcCRC16(byte[] data, int offset, int length) {
-		int crc = 0xFFFF;
-		for (int i = 0; i < length; i++) {
-			crc = (crc >>> 8) ^ CrcTable[(crc ^ data[offset + i]) & 0xff];
+		return updateCRC16(0xFFFF, data, offset, length);
+	}
+
+	/**
+	 * Continue CRC16 calculation with more data, start with 0xFFFF. 
+	 * CRC over a frame including its own CRC bytes is 0.
+	 * @param crc	CRC of the previous data
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static final int updateCRC16(int crc, byte[] data, int offset, int length) {
+		final char[] t = CrcTable4;
+		int i = offset;
+		int end = offset + length;
+		// 4 bytes per step, the first two overlap the CRC register, the other two only need a lookup
+		while (end - i >= 4) {
+			crc ^= (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8);
+			crc = t[512 + (crc & 0xff)] ^ t[256 + (crc >>> 8)] ^ t[data[i + 2] & 0xff] ^ CrcTable[data[i + 3] & 0xff];
+			i += 4;
+		}
+		while (i < end) {
+			crc = (crc >>> 8) ^ CrcTable[(crc ^ data[i++]) & 0xff];
 		}
 		return crc;
 	}
 
+	/**
+	 * Verify CRC of a frame without extracting the CRC from it
+	 * @param data
+	 * @param offset
+	 * @param length	frame length including 2 bytes of CRC
+	 * @return true if CRC is valid
+	 */
+	public static final boolean checkCRC16(byte[] data, int offset, int length) {
+		return (length >= 2) && (updateCRC16(0xFFFF, data, offset, length) == 0);
+	}
+
 	public static final int bytesToInt16(byte lowByte, byte highByte, boolean unsigned) {
 		// returned value is signed
 		int i = (((int) highByte) << 8) | (((int) lowByte) & 0xFF);
@@ -197,7 +247,7 @@ public class ModbusPdu {
 		return bytesToInt16(pdu[offset + 1], pdu[offset], unsigned);
 	}
 
-	protected int readInt32FromPDU(int offset, boolean bigEndian) {
+	public int readInt32FromPDU(int offset, boolean bigEndian) {
 		if (bigEndian)
 			// this is "big-endian" (0x12345678 stored as 0x12, 0x34, 0x56, 0x78)
 			return ints16ToInt32(readInt16FromPDU(offset + 2, false), readInt16FromPDU(offset, false));
@@ -206,13 +256,240 @@ public class ModbusPdu {
 			return ints16ToInt32(readInt16FromPDU(offset, false), readInt16FromPDU(offset + 2, false));
 	}
 
-	protected float readFloatFromPDU(int offset, boolean bigEndian) {
+	public float readFloatFromPDU(int offset, boolean bigEndian) {
 		return Float.intBitsToFloat(readInt32FromPDU(offset, bigEndian));
 	}
 
+	/**
+	 * Position of a byte of a multi-register value 
+	 * @param k		byte significance, 0 is the most significant byte
+	 * @param words	number of registers of the value
+	 * @param order	ORDER_*
+	 * @return byte offset from the start of the value
+	 */
+	private static int byteIndex(int k, int words, int order) {
+		int word = k >> 1;
+		int b = k & 1;
+		if ((order & ORDER_CDAB) != 0)
+			word = words - 1 - word;
+		if ((order & ORDER_BADC) != 0)
+			b = 1 - b;
+		return word * 2 + b;
+	}
+
+	private void checkRange(int offset, int bytes) {
+		// Values can be placed only in DATA section of PDU (starting from offset 1) 
+		if ((offset < 1) || (bytes < 0) || (offset + bytes > pduSize))
+			throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Read consecutive 16 bit registers, big-endian
+	 * @param offset	PDU offset of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of registers
+	 */
+	public void readInt16sFromPDU(int offset, short[] dest, int destOffset, int count) {
+		checkRange(offset, count * 2);
+		for (int i = 0; i < count; i++, offset += 2)
+			dest[destOffset + i] = (short) ((pdu[offset] << 8) | (pdu[offset + 1] & 0xFF));
+	}
+
+	/**
+	 * Read consecutive 16 bit registers, big-endian
+	 * @param offset	PDU offset of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of registers
+	 * @param unsigned	0..65535 or -32768..32767
+	 */
+	public void readInt16sFromPDU(int offset, int[] dest, int destOffset, int count, boolean unsigned) {
+		checkRange(offset, count * 2);
+		int mask = unsigned ? 0xFFFF : 0xFFFFFFFF;
+		for (int i = 0; i < count; i++, offset += 2)
+			dest[destOffset + i] = ((pdu[offset] << 8) | (pdu[offset + 1] & 0xFF)) & mask;
+	}
+
+	/**
+	 * Read consecutive 32 bit values, 2 registers each
+	 * @param offset	PDU offset of the first value
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ORDER_*
+	 */
+	public void readInt32sFromPDU(int offset, int[] dest, int destOffset, int count, int order) {
+		checkRange(offset, count * 4);
+		int i0 = byteIndex(0, 2, order), i1 = byteIndex(1, 2, order);
+		int i2 = byteIndex(2, 2, order), i3 = byteIndex(3, 2, order);
+		for (int i = 0; i < count; i++, offset += 4)
+			dest[destOffset + i] = (pdu[offset + i0] << 24) | ((pdu[offset + i1] & 0xFF) << 16) 
+					| ((pdu[offset + i2] & 0xFF) << 8) | (pdu[offset + i3] & 0xFF);
+	}
+
+	/**
+	 * Read consecutive IEEE 754 float values, 2 registers each
+	 * @param offset	PDU offset of the first value
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ORDER_*
+	 */
+	public void readFloatsFromPDU(int offset, float[] dest, int destOffset, int count, int order) {
+		checkRange(offset, count * 4);
+		int i0 = byteIndex(0, 2, order), i1 = byteIndex(1, 2, order);
+		int i2 = byteIndex(2, 2, order), i3 = byteIndex(3, 2, order);
+		for (int i = 0; i < count; i++, offset += 4)
+			dest[destOffset + i] = Float.intBitsToFloat((pdu[offset + i0] << 24) | ((pdu[offset + i1] & 0xFF) << 16) 
+					| ((pdu[offset + i2] & 0xFF) << 8) | (pdu[offset + i3] & 0xFF));
+	}
+
+	/**
+	 * Read consecutive 64 bit values, 4 registers each
+	 * @param offset	PDU offset of the first value
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ORDER_*, applies to all 4 registers, e.g. ORDER_CDAB is GHEFCDAB
+	 */
+	public void readInt64sFromPDU(int offset, long[] dest, int destOffset, int count, int order) {
+		checkRange(offset, count * 8);
+		int hi = byteIndex(0, 4, order) < 4 ? 0 : 4; // high half is first or last 2 registers
+		int i0 = byteIndex(0, 2, order), i1 = byteIndex(1, 2, order);
+		int i2 = byteIndex(2, 2, order), i3 = byteIndex(3, 2, order);
+		int lo = 4 - hi;
+		for (int i = 0; i < count; i++, offset += 8) {
+			int h = offset + hi;
+			int l = offset + lo;
+			long high = (pdu[h + i0] << 24) | ((pdu[h + i1] & 0xFF) << 16) | ((pdu[h + i2] & 0xFF) << 8) | (pdu[h + i3] & 0xFF);
+			long low = (pdu[l + i0] << 24) | ((pdu[l + i1] & 0xFF) << 16) | ((pdu[l + i2] & 0xFF) << 8) | (pdu[l + i3] & 0xFF);
+			dest[destOffset + i] = (high << 32) | (low & 0xFFFFFFFFL);
+		}
+	}
+
+	/**
+	 * Read consecutive IEEE 754 double values, 4 registers each
+	 * @param offset	PDU offset of the first value
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ORDER_*, applies to all 4 registers
+	 */
+	public void readDoublesFromPDU(int offset, double[] dest, int destOffset, int count, int order) {
+		checkRange(offset, count * 8);
+		int hi = byteIndex(0, 4, order) < 4 ? 0 : 4;
+		int lo = 4 - hi;
+		int i0 = byteIndex(0, 2, order), i1 = byteIndex(1, 2, order);
+		int i2 = byteIndex(2, 2, order), i3 = byteIndex(3, 2, order);
+		for (int i = 0; i < count; i++, offset += 8) {
+			int h = offset + hi;
+			int l = offset + lo;
+			long high = (pdu[h + i0] << 24) | ((pdu[h + i1] & 0xFF) << 16) | ((pdu[h + i2] & 0xFF) << 8) | (pdu[h + i3] & 0xFF);
+			long low = (pdu[l + i0] << 24) | ((pdu[l + i1] & 0xFF) << 16) | ((pdu[l + i2] & 0xFF) << 8) | (pdu[l + i3] & 0xFF);
+			dest[destOffset + i] = Double.longBitsToDouble((high << 32) | (low & 0xFFFFFFFFL));
+		}
+	}
+
 	public boolean readBitFromPDU(int firstByte, int bitOffset) {
 		byte b = readByteFromPDU(firstByte + (bitOffset / 8));
 		return (b & (1 << (bitOffset % 8))) != 0;
 	}
+
+	/**
+	 * Read consecutive bits into a packed array, bit i of the result is bit (i &amp; 63) of dest[i &gt;&gt; 6]
+	 * @param firstByte	PDU offset of the bit field
+	 * @param bitOffset	first bit in the field
+	 * @param dest
+	 * @param destBit	first bit in dest
+	 * @param count		number of bits
+	 */
+	public void readBitsFromPDU(int firstByte, int bitOffset, long[] dest, int destBit, int count) {
+		checkRange(firstByte, bytesCount(bitOffset + count));
+		int i = 0;
+		while (i < count) {
+			int src = bitOffset + i;
+			int n = Math.min(8 - (src & 7), count - i);
+			long bits = ((pdu[firstByte + (src >> 3)] & 0xFF) >>> (src & 7)) & ((1 << n) - 1);
+			int d = destBit + i;
+			int word = d >> 6;
+			int shift = d & 63;
+			long mask = (1L << n) - 1;
+			dest[word] = (dest[word] & ~(mask << shift)) | (bits << shift);
+			if (shift + n > 64) {
+				// field crosses a word boundary
+				dest[word + 1] = (dest[word + 1] & ~(mask >>> (64 - shift))) | (bits >>> (64 - shift));
+			}
+			i += n;
+		}
+	}
+
+	/**
+	 * Read consecutive bits into a bit set, other bits of the set are kept
+	 * @param firstByte	PDU offset of the bit field
+	 * @param bitOffset	first bit in the field
+	 * @param dest
+	 * @param destIndex	first bit in dest
+	 * @param count		number of bits
+	 */
+	public void readBitsFromPDU(int firstByte, int bitOffset, BitSet dest, int destIndex, int count) {
+		checkRange(firstByte, bytesCount(bitOffset + count));
+		dest.clear(destIndex, destIndex + count);
+		int i = 0;
+		while (i < count) {
+			int src = bitOffset + i;
+			int n = Math.min(8 - (src & 7), count - i);
+			int bits = ((pdu[firstByte + (src >> 3)] & 0xFF) >>> (src & 7)) & ((1 << n) - 1);
+			while (bits != 0) {
+				int b = Integer.numberOfTrailingZeros(bits);
+				dest.set(destIndex + i + b);
+				bits &= bits - 1;
+			}
+			i += n;
+		}
+	}
+
+	/**
+	 * Write packed bits as a byte aligned field, unused bits of the last byte are cleared
+	 * @param firstByte	PDU offset of the bit field
+	 * @param src		bit i is bit (i &amp; 63) of src[i &gt;&gt; 6]
+	 * @param srcBit	first bit in src
+	 * @param count		number of bits
+	 */
+	public void writeBitsToPDU(int firstByte, long[] src, int srcBit, int count) {
+		int bytes = bytesCount(count);
+		checkRange(firstByte, bytes);
+		for (int i = 0; i < bytes; i++) {
+			int s = srcBit + i * 8;
+			int word = s >> 6;
+			int shift = s & 63;
+			long bits = src[word] >>> shift;
+			if ((shift > 56) && (word + 1 < src.length))
+				bits |= src[word + 1] << (64 - shift);
+			int n = count - i * 8;
+			if (n < 8)
+				bits &= (1 << n) - 1;
+			pdu[firstByte + i] = (byte) bits;
+		}
+	}
+
+	/**
+	 * Write bits of a bit set as a byte aligned field, unused bits of the last byte are cleared
+	 * @param firstByte	PDU offset of the bit field
+	 * @param src
+	 * @param fromIndex	first bit in src
+	 * @param count		number of bits
+	 */
+	public void writeBitsToPDU(int firstByte, BitSet src, int fromIndex, int count) {
+		int bytes = bytesCount(count);
+		checkRange(firstByte, bytes);
+		for (int i = 0; i < bytes; i++)
+			pdu[firstByte + i] = 0;
+		int end = fromIndex + count;
+		for (int k = src.nextSetBit(fromIndex); (k >= 0) && (k < end); k = src.nextSetBit(k + 1)) {
+			int b = k - fromIndex;
+			pdu[firstByte + (b >> 3)] |= (byte) (1 << (b & 7));
+		}
+	}
 	
 }
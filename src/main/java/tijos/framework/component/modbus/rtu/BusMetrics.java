@@ -0,0 +1,163 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Bus statistics recorded by the transport: latency histograms and error counters per server 
+ * and function code, bytes on the wire and the share of time the line carries frames. 
+ * Recording allocates nothing once a server has been seen. 
+ * Set to the transport with {@link RtuTransportUART#setMetrics(BusMetrics)}.
+ * @author TiJOS
+ *
+ */
+public class BusMetrics {
+
+	private static final int SERVERS = 248; // id 0..247
+	private static final int SLOTS = 10; // of the utilization window
+
+	private final ServerMetrics[] servers = new ServerMetrics[SERVERS];
+	private long txBytes;
+	private long rxBytes;
+	private long busyTime; // us
+
+	// rolling utilization window
+	private final int slotTime; // ms
+	private final long[] slotBusy = new long[SLOTS]; // us
+	private long slot = -1; // current slot number, time / slotTime
+	private long start; // ms, recording started
+
+	/**
+	 * Initialize with 10s utilization window
+	 */
+	public BusMetrics() {
+		this(10000);
+	}
+
+	/**
+	 * Initialize
+	 * @param window	utilization window in ms
+	 */
+	public BusMetrics(int window) {
+		if (window < SLOTS)
+			throw new IllegalArgumentException();
+		this.slotTime = window / SLOTS;
+		this.start = System.currentTimeMillis();
+	}
+
+	/**
+	 * Record an executed request
+	 * @param serverId	server id
+	 * @param function	function code of the request
+	 * @param result	RESULT_*
+	 * @param crcError	the response had a CRC error
+	 * @param latency	time from sending the request to the end of the response in microseconds
+	 * @param requestBytes	bytes sent
+	 * @param responseBytes	bytes received
+	 * @param charTime	time of one character in microseconds
+	 */
+	public synchronized void record(int serverId, int function, int result, boolean crcError, long latency, 
+			int requestBytes, int responseBytes, int charTime) {
+		int id = serverId & 0xFF;
+		if (id >= SERVERS)
+			return;
+		ServerMetrics s = servers[id];
+		if (s == null) {
+			s = new ServerMetrics(id);
+			servers[id] = s;
+		}
+		long busy = (long) (requestBytes + responseBytes) * charTime;
+		s.record(function, result, crcError, latency, busy);
+		txBytes += requestBytes;
+		rxBytes += responseBytes;
+		busyTime += busy;
+		advance(System.currentTimeMillis());
+		slotBusy[(int) (slot % SLOTS)] += busy;
+	}
+
+	/**
+	 * Move the window to the current time
+	 * @param now
+	 */
+	private void advance(long now) {
+		long current = now / slotTime;
+		if ((slot < 0) || (current - slot >= SLOTS)) {
+			for (int i = 0; i < SLOTS; i++)
+				slotBusy[i] = 0;
+		} else {
+			for (long s = slot + 1; s <= current; s++)
+				slotBusy[(int) (s % SLOTS)] = 0;
+		}
+		slot = current;
+	}
+
+	/**
+	 * Share of the last window the line carried frames, 
+	 * of the time since creation or reset if the window has not passed yet
+	 * @return percent 0..100
+	 */
+	public synchronized int getUtilization() {
+		long now = System.currentTimeMillis();
+		advance(now);
+		long busy = 0;
+		for (int i = 0; i < SLOTS; i++)
+			busy += slotBusy[i];
+		// full slots before the current one, plus the current one so far
+		long elapsed = (long) (SLOTS - 1) * slotTime + (now - slot * slotTime);
+		elapsed = Math.max(1, Math.min(elapsed, now - start)) * 1000;
+		return (int) Math.min(100, busy * 100 / elapsed);
+	}
+
+	public synchronized long getTxBytes() {
+		return txBytes;
+	}
+
+	public synchronized long getRxBytes() {
+		return rxBytes;
+	}
+
+	/**
+	 * Time the line carried frames since the last reset
+	 * @return microseconds
+	 */
+	public synchronized long getBusyTime() {
+		return busyTime;
+	}
+
+	/**
+	 * Ids of the servers with statistics
+	 * @param dest	248 elements at most are needed
+	 * @return number of ids
+	 */
+	public synchronized int getServers(int[] dest) {
+		int n = 0;
+		for (int i = 0; (i < SERVERS) && (n < dest.length); i++) {
+			if (servers[i] != null)
+				dest[n++] = i;
+		}
+		return n;
+	}
+
+	/**
+	 * Copy the statistics of a server
+	 * @param serverId
+	 * @param dest
+	 * @return false if nothing has been recorded for the server or the id is out of 0..247
+	 */
+	public synchronized boolean getServerMetrics(int serverId, ServerMetrics dest) {
+		if ((serverId < 0) || (serverId >= SERVERS))
+			return false;
+		ServerMetrics s = servers[serverId];
+		if (s == null)
+			return false;
+		s.copyTo(dest);
+		return true;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < SERVERS; i++)
+			servers[i] = null;
+		txBytes = 0;
+		rxBytes = 0;
+		busyTime = 0;
+		slot = -1;
+		start = System.currentTimeMillis();
+	}
+}
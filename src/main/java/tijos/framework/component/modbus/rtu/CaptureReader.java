@@ -0,0 +1,175 @@
+package tijos.framework.component.modbus.rtu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of a {@link FrameCapture} file, the file is memory-mapped read-only 
+ * one chunk at a time, so captures of any size can be read
+ * @author TiJOS
+ *
+ */
+public class CaptureReader implements Closeable {
+
+	private static final int MAX_RECORD_SIZE = FrameCapture.RECORD_HEADER_SIZE + 255;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkSize;
+	private MappedByteBuffer map;
+	private long mapStart; // file offset of the mapped chunk
+	private final long startTime;
+
+	private final byte[] frame = new byte[256];
+	private int length;
+	private int direction;
+	private long timestamp;
+
+	/**
+	 * Open capture file mapped in chunks of 1MB
+	 * @param path
+	 * @throws IOException	if the file is not a capture
+	 */
+	public CaptureReader(String path) throws IOException {
+		this(path, 1 << 20);
+	}
+
+	/**
+	 * Open capture file
+	 * @param path
+	 * @param chunkSize	bytes mapped at a time
+	 * @throws IOException	if the file is not a capture
+	 */
+	public CaptureReader(String path, int chunkSize) throws IOException {
+		if (chunkSize < FrameCapture.HEADER_SIZE + MAX_RECORD_SIZE)
+			throw new IllegalArgumentException("Chunk too small: " + chunkSize);
+		this.chunkSize = chunkSize;
+		file = new RandomAccessFile(path, "r");
+		try {
+			channel = file.getChannel();
+			size = file.length();
+			if (size < FrameCapture.HEADER_SIZE)
+				throw new IOException("Invalid capture size: " + size);
+			map(0);
+			if ((map.getInt() != FrameCapture.MAGIC) || (map.getShort() != FrameCapture.VERSION))
+				throw new IOException("Not a capture file: " + path);
+			map.getShort();
+			startTime = map.getLong();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map the chunk starting at a file offset
+	 * @param position
+	 * @throws IOException
+	 */
+	private void map(long position) throws IOException {
+		map = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+		mapStart = position;
+	}
+
+	/**
+	 * Time the capture was started
+	 * @return System.currentTimeMillis() of the capturing host
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Read next frame
+	 * @return false at the end of the capture
+	 * @throws IOException	if the next chunk cannot be mapped
+	 */
+	public boolean next() throws IOException {
+		// a record never spans two chunks, map the next one from the record on
+		if ((map.remaining() < MAX_RECORD_SIZE) && (mapStart + map.limit() < size))
+			map(getPosition());
+		if (map.remaining() < FrameCapture.RECORD_HEADER_SIZE)
+			return false;
+		int position = map.position();
+		int len = map.getShort() & 0xFFFF;
+		if ((len == 0) || (len > frame.length) || (map.remaining() < len + 9)) {
+			map.position(position);
+			return false;
+		}
+		direction = map.get();
+		timestamp = map.getLong();
+		map.get(frame, 0, len);
+		length = len;
+		return true;
+	}
+
+	/**
+	 * Direction of the current frame
+	 * @return FrameTrace.TX or FrameTrace.RX
+	 */
+	public int getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Time of the current frame
+	 * @return nanoseconds since the start of the capture
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Copy the current frame
+	 * @param dest
+	 * @param offset
+	 * @return frame length
+	 */
+	public int getFrame(byte[] dest, int offset) {
+		System.arraycopy(frame, 0, dest, offset, length);
+		return length;
+	}
+
+	/**
+	 * Position of the next frame, see {@link #seek(long)}
+	 * @return file offset
+	 */
+	public long getPosition() {
+		return mapStart + map.position();
+	}
+
+	/**
+	 * Continue at a position returned by {@link #getPosition()}
+	 * @param position
+	 * @throws IOException	if the chunk cannot be mapped
+	 */
+	public void seek(long position) throws IOException {
+		if ((position < FrameCapture.HEADER_SIZE) || (position > size))
+			throw new IllegalArgumentException("Invalid position: " + position);
+		if ((position >= mapStart) && (position <= mapStart + map.limit()))
+			map.position((int) (position - mapStart));
+		else
+			map(position);
+	}
+
+	/**
+	 * Continue at the first frame
+	 * @throws IOException	if the chunk cannot be mapped
+	 */
+	public void rewind() throws IOException {
+		seek(FrameCapture.HEADER_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,134 @@
+package tijos.framework.component.modbus.rtu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import tijos.framework.util.logging.Logger;
+
+/**
+ * Binary capture of raw RTU frames appended to a memory-mapped file, for replay 
+ * by {@link ReplayTransport}. Unlike {@link FrameTrace} nothing is overwritten, the file grows 
+ * by one mapped chunk at a time. Set to the transport with {@link RtuTransportUART#setCapture(FrameCapture)}.<br>
+ * File format, big endian: header [magic(4), version(2), reserved(2), start time in ms(8)], 
+ * then one record per frame [length(2), direction(1), time since start in ns(8), frame(length)]. 
+ * A record length of 0 ends the capture.
+ * @author TiJOS
+ *
+ */
+public class FrameCapture implements Closeable {
+
+	public static final int MAGIC = 0x4D424350; // "MBCP"
+	public static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_HEADER_SIZE = 11;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int chunkSize;
+	private MappedByteBuffer map;
+	private long mapStart; // file offset of the mapped chunk, or file size once closed
+	private final long startNanos;
+	private long frames;
+	private boolean closed;
+
+	/**
+	 * Create capture file mapped in chunks of 1MB
+	 * @param path	file, overwritten if it exists
+	 * @throws IOException
+	 */
+	public FrameCapture(String path) throws IOException {
+		this(path, 1 << 20);
+	}
+
+	/**
+	 * Create capture file
+	 * @param path	file, overwritten if it exists
+	 * @param chunkSize	bytes mapped at a time
+	 * @throws IOException
+	 */
+	public FrameCapture(String path, int chunkSize) throws IOException {
+		if (chunkSize < HEADER_SIZE + RECORD_HEADER_SIZE + 256)
+			throw new IllegalArgumentException("Chunk too small: " + chunkSize);
+		this.chunkSize = chunkSize;
+		this.file = new RandomAccessFile(path, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+		this.startNanos = System.nanoTime();
+		map.putInt(MAGIC);
+		map.putShort((short) VERSION);
+		map.putShort((short) 0);
+		map.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Append a frame, capturing stops with a warning if the file cannot be extended
+	 * @param direction FrameTrace.TX or FrameTrace.RX
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void record(int direction, byte[] data, int offset, int length) {
+		if (closed || (length <= 0))
+			return;
+		long time = System.nanoTime() - startNanos;
+		try {
+			if (map.remaining() < RECORD_HEADER_SIZE + length + 2) {
+				// next chunk starts where this one ends, the end mark is written over by the next record
+				long position = mapStart + map.position();
+				map.force();
+				map = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkSize);
+				mapStart = position;
+			}
+		} catch (IOException e) {
+			Logger.warning("Modbus", "Capture stopped: " + e.getMessage());
+			closed = true;
+			return;
+		}
+		map.putShort((short) length);
+		map.put((byte) direction);
+		map.putLong(time);
+		map.put(data, offset, length);
+		frames++;
+	}
+
+	/**
+	 * Number of frames captured
+	 * @return
+	 */
+	public synchronized long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Bytes written to the file
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return (map == null) ? mapStart : mapStart + map.position();
+	}
+
+	/**
+	 * Flush and cut the file to the captured size
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (map == null)
+			return;
+		long size = getSize();
+		closed = true;
+		map.force();
+		map = null;
+		mapStart = size;
+		try {
+			channel.truncate(size);
+		} catch (IOException e) {
+			// some systems refuse while the chunk is still mapped, the end mark is in place anyway
+		}
+		file.close();
+	}
+}
@@ -0,0 +1,130 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.MAX_PDU_SIZE;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+import tijos.framework.util.logging.Logger;
+
+/**
+ * Wire trace of raw RTU frames kept in a preallocated ring buffer, the oldest frames 
+ * are overwritten. Recording copies bytes only, text is built by {@link #dump()}. 
+ * Set to the transport with {@link RtuTransportUART#setTrace(FrameTrace)}, 
+ * without a trace nothing is recorded at all.
+ * @author TiJOS
+ *
+ */
+public class FrameTrace {
+
+	/**
+	 * Frame direction
+	 */
+	public static final int TX = 0;
+	public static final int RX = 1;
+
+	private static final int SLOT_SIZE = MAX_PDU_SIZE + 3; // ADU: [ID(1), PDU(n), CRC(2)]
+
+	private final byte[] frames;
+	private final long[] timestamps;
+	private final short[] lengths;
+	private final byte[] directions;
+
+	private int next;
+	private int count;
+
+	/**
+	 * Initialize with number of frames kept
+	 * @param capacity
+	 */
+	public FrameTrace(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException();
+		this.frames = new byte[capacity * SLOT_SIZE];
+		this.timestamps = new long[capacity];
+		this.lengths = new short[capacity];
+		this.directions = new byte[capacity];
+	}
+
+	/**
+	 * Record a frame
+	 * @param direction TX or RX
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void record(int direction, byte[] data, int offset, int length) {
+		length = Math.min(length, SLOT_SIZE);
+		int slot = next;
+		System.arraycopy(data, offset, frames, slot * SLOT_SIZE, length);
+		timestamps[slot] = System.nanoTime();
+		lengths[slot] = (short) length;
+		directions[slot] = (byte) direction;
+
+		next = (slot + 1) % timestamps.length;
+		if (count < timestamps.length)
+			count++;
+	}
+
+	/**
+	 * Number of frames in the trace
+	 * @return
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public synchronized void clear() {
+		next = 0;
+		count = 0;
+	}
+
+	/**
+	 * Copy a frame from the trace
+	 * @param index	0 is the oldest frame
+	 * @param dest	destination, 256 bytes at least
+	 * @return frame length
+	 */
+	public synchronized int getFrame(int index, byte[] dest) {
+		int slot = slot(index);
+		System.arraycopy(frames, slot * SLOT_SIZE, dest, 0, lengths[slot]);
+		return lengths[slot];
+	}
+
+	/**
+	 * Time the frame was recorded 
+	 * @param index 0 is the oldest frame
+	 * @return System.nanoTime() of recording
+	 */
+	public synchronized long getTimestamp(int index) {
+		return timestamps[slot(index)];
+	}
+
+	/**
+	 * Direction of the frame
+	 * @param index 0 is the oldest frame
+	 * @return TX or RX
+	 */
+	public synchronized int getDirection(int index) {
+		return directions[slot(index)];
+	}
+
+	private int slot(int index) {
+		if ((index < 0) || (index >= count))
+			throw new IndexOutOfBoundsException();
+		return (next - count + index + timestamps.length) % timestamps.length;
+	}
+
+	/**
+	 * Log all frames, oldest first, time relative to the oldest frame in microseconds
+	 */
+	public synchronized void dump() {
+		if (count == 0)
+			return;
+		long first = timestamps[slot(0)];
+		for (int i = 0; i < count; i++) {
+			int slot = slot(i);
+			Logger.info("Modbus", ((timestamps[slot] - first) / 1000) + "us " 
+					+ (directions[slot] == TX ? "TX: " : "RX: ") 
+					+ ModbusPdu.toHex(frames, slot * SLOT_SIZE, lengths[slot]));
+		}
+	}
+}
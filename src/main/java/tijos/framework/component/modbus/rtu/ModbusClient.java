@@ -3,8 +3,8 @@ package tijos.framework.component.modbus.rtu;
 import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
 
 import java.io.Closeable;
+import java.util.BitSet;
 
-import tijos.framework.component.modbus.protocol.ModbusPdu;
 import tijos.framework.component.rs485.TiRS485;
 import tijos.framework.util.logging.Logger;
 
@@ -14,7 +14,7 @@ import tijos.framework.util.logging.Logger;
  * @author TiJOS
  *
  */
-public class ModbusClient extends ModbusPdu implements Closeable {
+public class ModbusClient extends ModbusResponseData implements Closeable {
 
 	/**
 	 * Modbus Result Code
@@ -23,6 +23,7 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 	public static final byte RESULT_TIMEOUT = 1;
 	public static final byte RESULT_EXCEPTION = 2; // Modbus exception. Get code by getExceptionCode() 
 	public static final byte RESULT_BAD_RESPONSE = 3; // CRC mismatch, or invalid format
+	public static final byte RESULT_OFFLINE = 4; // server is offline, request not sent. See ServerHealthMonitor
 
 	private boolean responseReady = false;
 	
@@ -39,6 +40,20 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 	 * Transport 
 	 */	
 	private ModbusClientTransport transport;
+
+	/**
+	 * Offline detection, null if disabled
+	 */
+	private ServerHealthMonitor health;
+	private byte[] savedPdu; // request saved during probe
+
+	/**
+	 * Read cache, null if disabled
+	 */
+	private ResponseCache cache;
+
+	private static final ResponseListener[] NO_LISTENERS = new ResponseListener[0];
+	private volatile ResponseListener[] listeners = NO_LISTENERS;
 	
 	public ModbusClient(TiRS485 rs485,  int timeout, int pause) {
 		RtuTransportUART rtu = new RtuTransportUART(rs485, timeout, pause);
@@ -54,6 +69,62 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 		this.transport = tr;
 	}
 	
+	/**
+	 * Set health monitor to fail requests to offline servers fast, null to disable
+	 * @param monitor
+	 */
+	public void setHealthMonitor(ServerHealthMonitor monitor) {
+		this.health = monitor;
+	}
+
+	public ServerHealthMonitor getHealthMonitor() {
+		return health;
+	}
+
+	/**
+	 * Set cache answering reads without a request on the bus, null to disable. 
+	 * A cache may be shared by clients of the same bus.
+	 * @param cache
+	 */
+	public void setResponseCache(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	public ResponseCache getResponseCache() {
+		return cache;
+	}
+
+	/**
+	 * Add listener notified after each executed request
+	 * @param listener
+	 */
+	public synchronized void addResponseListener(ResponseListener listener) {
+		ResponseListener[] list = new ResponseListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, list, 0, listeners.length);
+		list[listeners.length] = listener;
+		listeners = list;
+	}
+
+	public synchronized void removeResponseListener(ResponseListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				ResponseListener[] list = new ResponseListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, list, 0, i);
+				System.arraycopy(listeners, i + 1, list, i, list.length - i);
+				listeners = list;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get transport object
+	 * @return
+	 */
+	public ModbusClientTransport getTransport() {
+		return transport;
+	}
+
 	/**
 	 * Get server id
 	 * @return
@@ -199,16 +270,49 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 		initRequest(serverId, 6 + bytes, FN_WRITE_MULTIPLE_COILS, startAddress, values.length, -1, -1, 5);
 		writeByteToPDU(5, (byte)bytes);
 		for (int i = 0; i < bytes; i++) {
-			byte b = 0;
-			for (int j = 0; j < 8; j++) {
-				int k = i * 8 + j;
-				if ((k < values.length) && values[k])
-					b = (byte) (b | (1 << j));
+			int b = 0;
+			int end = Math.min(8, values.length - i * 8);
+			for (int j = 0; j < end; j++) {
+				if (values[i * 8 + j])
+					b |= 1 << j;
 			}
-			writeByteToPDU(6 + i, b);
+			pdu[6 + i] = (byte) b;
 		}
 	}
 
+	/**
+	 * Initialize WRITE MULTIPLE COILS registers from packed bits
+	 * @param serverId
+	 * @param startAddress
+	 * @param values	coil i is bit (i &amp; 63) of values[i &gt;&gt; 6]
+	 * @param count		number of coils
+	 */
+	public void InitWriteCoilsRequest(int serverId, int startAddress, long[] values, int count) {
+		if ((count < 1) || (count > MAX_WRITE_COILS) || (count > values.length * 64))
+			throw new IllegalArgumentException();
+		int bytes = bytesCount(count);
+		initRequest(serverId, 6 + bytes, FN_WRITE_MULTIPLE_COILS, startAddress, count, -1, -1, 5);
+		writeByteToPDU(5, (byte)bytes);
+		writeBitsToPDU(6, values, 0, count);
+	}
+
+	/**
+	 * Initialize WRITE MULTIPLE COILS registers from a bit set
+	 * @param serverId
+	 * @param startAddress
+	 * @param values
+	 * @param fromIndex	index of the bit for startAddress
+	 * @param count		number of coils
+	 */
+	public void InitWriteCoilsRequest(int serverId, int startAddress, BitSet values, int fromIndex, int count) {
+		if ((count < 1) || (count > MAX_WRITE_COILS))
+			throw new IllegalArgumentException();
+		int bytes = bytesCount(count);
+		initRequest(serverId, 6 + bytes, FN_WRITE_MULTIPLE_COILS, startAddress, count, -1, -1, 5);
+		writeByteToPDU(5, (byte)bytes);
+		writeBitsToPDU(6, values, fromIndex, count);
+	}
+
 	/**
 	 * Initialize WRITE MULTIPLE registers
 	 * @param serverId
@@ -216,38 +320,283 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 	 * @param values
 	 */
 	public void InitWriteRegistersRequest(int serverId, int startAddress, int[] values) {
-		if (values.length > MAX_WRITE_REGS)
+		InitWriteRegistersRequest(serverId, startAddress, values, values.length);
+	}
+
+	/**
+	 * Initialize WRITE MULTIPLE registers from the first values of an array
+	 * @param serverId
+	 * @param startAddress
+	 * @param values
+	 * @param count		number of registers
+	 */
+	public void InitWriteRegistersRequest(int serverId, int startAddress, int[] values, int count) {
+		if ((count > MAX_WRITE_REGS) || (count > values.length))
 			throw new IllegalArgumentException();
-		int bytes = values.length * 2;
-		initRequest(serverId, 6 + bytes, FN_WRITE_MULTIPLE_REGISTERS, startAddress, values.length, -1, -1, 5);
+		int bytes = count * 2;
+		initRequest(serverId, 6 + bytes, FN_WRITE_MULTIPLE_REGISTERS, startAddress, count, -1, -1, 5);
 		writeByteToPDU(5, (byte)bytes);
-		for (int i = 0; i < values.length; i++) {
+		for (int i = 0; i < count; i++) {
 			writeInt16ToPDU(6 + i * 2, values[i]);
 		}
 	}
 	
 	/**
-	 * Send request to the device and wait for the response
+	 * Initialize a MASK WRITE REGISTER request, the register becomes 
+	 * (current AND andMask) OR (orMask AND NOT andMask). 
+	 * To set bit n alone use andMask = ~(1 &lt;&lt; n), orMask = 1 &lt;&lt; n, to clear it orMask = 0.
+	 * @param serverId
+	 * @param regAddress
+	 * @param andMask
+	 * @param orMask
+	 */
+	public void InitMaskWriteRegisterRequest(int serverId, int regAddress, int andMask, int orMask) {
+		initRequest(serverId, 7, FN_MASK_WRITE_REGISTER, regAddress, andMask, -1, -1, 7);
+		writeInt16ToPDU(5, orMask);
+	}
+
+	/**
+	 * Initialize a READ/WRITE MULTIPLE registers request, the device writes the values 
+	 * and then returns the registers read, accessed like a READ HOLDING REGISTERs response
+	 * @param serverId
+	 * @param readAddress	start address of the registers to read
+	 * @param readCount		number to read
+	 * @param writeAddress	start address of the registers to write
+	 * @param values		values to write
+	 * @param writeCount	number to write
+	 */
+	public void InitReadWriteRegistersRequest(int serverId, int readAddress, int readCount, 
+			int writeAddress, int[] values, int writeCount) {
+		if ((readCount < 1) || (readCount > MAX_READ_REGS))
+			throw new IllegalArgumentException();
+		if ((writeCount < 1) || (writeCount > MAX_READ_WRITE_REGS) || (writeCount > values.length))
+			throw new IllegalArgumentException();
+		int bytes = writeCount * 2;
+		initRequest(serverId, 10 + bytes, FN_READ_WRITE_MULTIPLE_REGISTERS, readAddress, readCount, 
+				readAddress, readCount, 2 + readCount * 2);
+		writeInt16ToPDU(5, writeAddress);
+		writeInt16ToPDU(7, writeCount);
+		writeByteToPDU(9, (byte)bytes);
+		for (int i = 0; i < writeCount; i++) {
+			writeInt16ToPDU(10 + i * 2, values[i]);
+		}
+	}
+
+	/**
+	 * Initialize a request from a raw PDU, e.g. received by a gateway. 
+	 * The expected response size is derived from the function and its parameters.
+	 * @param serverId	server id
+	 * @param pdu		function (1 byte), data (0..252 bytes)
+	 * @param offset	offset of the PDU
+	 * @param length	PDU size
+	 * @throws IllegalArgumentException	if the function is not supported or the PDU is malformed
+	 */
+	public void InitRawRequest(int serverId, byte[] pdu, int offset, int length) {
+		if ((length < 1) || (length > MAX_PDU_SIZE))
+			throw new IllegalArgumentException("Invalid PDU size: " + length);
+		int function = pdu[offset];
+		int param1 = (length >= 3) ? bytesToInt16(pdu[offset + 2], pdu[offset + 1], true) : 0;
+		int param2 = (length >= 5) ? bytesToInt16(pdu[offset + 4], pdu[offset + 3], true) : 0;
+		int address = -1;
+		int count = -1;
+		int expected;
+		boolean valid;
+		switch (function) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+			valid = (length == 5) && (param2 >= 1) && (param2 <= MAX_READ_COILS);
+			address = param1;
+			count = param2;
+			expected = 2 + bytesCount(param2);
+			break;
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+			valid = (length == 5) && (param2 >= 1) && (param2 <= MAX_READ_REGS);
+			address = param1;
+			count = param2;
+			expected = 2 + param2 * 2;
+			break;
+		case FN_WRITE_SINGLE_COIL:
+		case FN_WRITE_SINGLE_REGISTER:
+			valid = (length == 5);
+			expected = 5;
+			break;
+		case FN_WRITE_MULTIPLE_COILS:
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			valid = (length >= 6) && (length == 6 + (pdu[offset + 5] & 0xFF));
+			expected = 5;
+			break;
+		case FN_MASK_WRITE_REGISTER:
+			valid = (length == 7);
+			expected = 7;
+			break;
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			valid = (length >= 10) && (length == 10 + (pdu[offset + 9] & 0xFF)) 
+					&& (param2 >= 1) && (param2 <= MAX_READ_REGS);
+			address = param1;
+			count = param2;
+			expected = 2 + param2 * 2;
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported function: " + function);
+		}
+		if (!valid)
+			throw new IllegalArgumentException("Invalid PDU of function " + function);
+		initCustomRequest(serverId, length, (byte) function, expected);
+		writeToPdu(pdu, offset, length, 0);
+		this.expectedAddress = address;
+		this.expectedCount = count;
+	}
+
+	/**
+	 * Send request to the device and wait for the response. 
+	 * A write to BROADCAST_ID only waits the turnaround delay of the transport and returns RESULT_OK. 
+	 * With a {@link ResponseCache} a read may be answered without a request.
 	 * @return result 
 	 * @throws Exception
 	 */
 	public int execRequest() throws Exception {
 		
+		if ((srvId == BROADCAST_ID) && !isBroadcastFunction(getFunction()))
+			throw new IllegalStateException("Only writes can be broadcast");
+
+		ResponseCache c = cache;
+		if ((c != null) && c.onRequest(this, expectedAddress, expectedCount, System.currentTimeMillis())) {
+			// answered from the cache, nothing has been executed so listeners are not notified
+			result = RESULT_OK;
+			responseReady = true;
+			return result;
+		}
+
+		ServerHealthMonitor monitor = health;
+		if (srvId == BROADCAST_ID)
+			monitor = null;
+		if ((monitor != null) && monitor.isOffline(srvId)) {
+			if (!monitor.isProbeDue(srvId, System.currentTimeMillis()) || !probe(monitor)) {
+				responseReady = false;
+				result = RESULT_OFFLINE;
+				notifyListeners();
+				return result;
+			}
+		}
+
 		transport.sendRequest(this);
 			
 		result = transport.waitResponse(this);
 		responseReady = (result == RESULT_OK);
+		if (monitor != null)
+			monitor.onResult(srvId, result, System.currentTimeMillis());
+		if (c != null)
+			c.onResponse(this, expectedAddress, expectedCount, System.currentTimeMillis());
 		if (!responseReady) {
 			if (result == RESULT_EXCEPTION)
 				Logger.warning("Modbus", "Exception 0x " +   byteToHex((byte) getExceptionCode()) + " from " + getServerId());
 			else
 				Logger.warning("Modbus", getResultAsString() + " from " + getServerId());
 		}
+		notifyListeners();
 		
 		return result;
 
 	}
 
+	/**
+	 * Check whether a function is supported by {@link #InitRawRequest(int, byte[], int, int)}
+	 * @param function
+	 * @return
+	 */
+	public static boolean isRawFunction(int function) {
+		switch (function) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			return true;
+		default:
+			return isBroadcastFunction(function);
+		}
+	}
+
+	/**
+	 * Check whether a function may be sent to BROADCAST_ID, the write functions without a read
+	 * @param function
+	 * @return
+	 */
+	public static boolean isBroadcastFunction(int function) {
+		switch (function) {
+		case FN_WRITE_SINGLE_COIL:
+		case FN_WRITE_SINGLE_REGISTER:
+		case FN_WRITE_MULTIPLE_COILS:
+		case FN_WRITE_MULTIPLE_REGISTERS:
+		case FN_MASK_WRITE_REGISTER:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void notifyListeners() {
+		ResponseListener[] list = listeners;
+		for (int i = 0; i < list.length; i++)
+			list[i].onResponse(this, result);
+	}
+
+	/**
+	 * Execute request and copy the response, the client itself may be reused at once
+	 * @param request	request
+	 * @param response	filled with the response
+	 * @return result
+	 * @throws Exception
+	 */
+	public int execRequest(ModbusRequest request, ModbusResponse response) throws Exception {
+		request.initRequest(this);
+		int res = execRequest();
+		getResponse(response);
+		return res;
+	}
+
+	/**
+	 * Probe offline server with a minimal request, the pending request is kept
+	 * @param monitor
+	 * @return true if the server answered
+	 * @throws Exception
+	 */
+	private boolean probe(ServerHealthMonitor monitor) throws Exception {
+		if (savedPdu == null)
+			savedPdu = new byte[MAX_PDU_SIZE];
+		int size = getPduSize();
+		int address = expectedAddress;
+		int count = expectedCount;
+		int expectedSize = expectedPduSize;
+		readFromPdu(0, size, savedPdu, 0);
+
+		try {
+			// READ HOLDING REGISTERs, 1 register at 0. An exception is an answer as well
+			initRequest(srvId, 5, FN_READ_HOLDING_REGISTERS, 0, 1, -1, -1, 4);
+			transport.sendRequest(this);
+			int res = transport.waitResponse(this);
+			monitor.onResult(srvId, res, System.currentTimeMillis());
+		} finally {
+			setPduSize(size);
+			writeToPdu(savedPdu, 0, size, 0);
+			this.expectedAddress = address;
+			this.expectedCount = count;
+			this.expectedPduSize = expectedSize;
+		}
+		return !monitor.isOffline(srvId);
+	}
+
+	/**
+	 * Copy result and response of the last request, so it stays available after the next request
+	 * @param response
+	 */
+	public void getResponse(ModbusResponse response) {
+		response.set(srvId, result, responseReady ? expectedAddress : -1, responseReady ? expectedCount : -1);
+		response.setPduSize(getPduSize());
+		response.writeToPdu(pdu, 0, getPduSize(), 0);
+	}
+
 	/**
 	 * Response result 
 	 * @return
@@ -266,6 +615,8 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 			return "Exception " + getExceptionCode();
 		case RESULT_TIMEOUT:
 			return "Timeout";
+		case RESULT_OFFLINE:
+			return "Offline";
 		default:
 			return null;
 		}
@@ -300,48 +651,6 @@ public class ModbusClient extends ModbusPdu implements Closeable {
 			throw new IllegalStateException();
 	}
 
-	/**
-	 * Get discrete value from response to request initiated by {@link #InitReadCoilsRequest()} or 
-	 * {@link #InitReadDInputsRequest()}. Call this method ONLY after successful execution 
-	 * of {@link #execRequest()}.<br>
-	 * @param address - Address of bit. It must be in the range specified in request.
-	 * You can use {@link #getResponseAddress()} and {@link #getResponseCount()}.
-	 * @return Value of bit at given address.
-	 */
-	public boolean getResponseBit(int address) {
-		if ((getFunction() == FN_READ_COILS) || (getFunction() == FN_READ_DISCRETE_INPUTS)) {
-			int offset = address - getResponseAddress();
-			if ((offset < 0) || (offset >= getResponseCount()))
-				throw new IndexOutOfBoundsException();
-			byte b = readByteFromPDU(2 + offset / 8);
-			return (b & (1 << (offset % 8))) != 0;
-		}
-		else
-			throw new IllegalStateException();
-	}
-
-	/**
-	 * Get register value from response to request initiated by {@link #InitReadHoldingsRequest()} or 
-	 * {@link #InitReadAInputsRequest()}. Call this method ONLY after successful execution 
-	 * of {@link #execRequest()}.<br>
-	 * There are various utility methods in {@link ModbusPdu} to manipulate int16 values.
-	 * @param address - Address of register. It must be in the range specified in request.
-	 * You can use {@link #getResponseAddress()} and {@link #getResponseCount()}.
-	 * @param unsigned - Should value stored in PDU be interpreted as signed or unsigned.
-	 * @return Value of register at given address. This value is 16 bit signed (-32768..+32767) or  
-	 * 16 bit unsigned (0..65535) depending on <b>unsigned</b> parameter.
-	 */
-	public int getResponseRegister(int address, boolean unsigned) {
-		if ((getFunction() == FN_READ_HOLDING_REGISTERS) || (getFunction() == FN_READ_INPUT_REGISTERS)) {
-			int offset = address - getResponseAddress();
-			if ((offset < 0) || (offset >= getResponseCount()))
-				throw new IndexOutOfBoundsException();
-			return readInt16FromPDU(2 + offset * 2, unsigned);
-		}
-		else
-			throw new IllegalStateException();
-	}
-
 	@Override
 	public void close() {
 		if (transport != null)
@@ -0,0 +1,280 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.util.BitSet;
+
+/**
+ * Immutable description of a MODBUS request, applied to a {@link ModbusClient} 
+ * with {@link #initRequest(ModbusClient)}. Safe to share between threads and to reuse.
+ * @author TiJOS
+ *
+ */
+public final class ModbusRequest {
+
+	private final int serverId;
+	private final int function;
+	private final int address;
+	private final int count;
+	private final int value; // single register or coil write, AND mask of FC22
+	private final int param; // write address of FC23, OR mask of FC22
+	private final int[] registers;
+	private final long[] coils; // packed, coil i is bit (i & 63) of coils[i >> 6]
+
+	private ModbusRequest(int serverId, int function, int address, int count, int value, int[] registers, long[] coils) {
+		this(serverId, function, address, count, value, 0, registers, coils);
+	}
+
+	private ModbusRequest(int serverId, int function, int address, int count, int value, int param, 
+			int[] registers, long[] coils) {
+		this.serverId = serverId;
+		this.function = function;
+		this.address = address;
+		this.count = count;
+		this.value = value;
+		this.param = param;
+		this.registers = registers;
+		this.coils = coils;
+	}
+
+	/**
+	 * Read Coils request
+	 * @param serverId
+	 * @param startAddress
+	 * @param count
+	 * @return
+	 */
+	public static ModbusRequest readCoils(int serverId, int startAddress, int count) {
+		checkCount(count, MAX_READ_COILS);
+		return new ModbusRequest(serverId, FN_READ_COILS, startAddress, count, 0, null, null);
+	}
+
+	/**
+	 * READ DISCRETE INPUT REGISTERs request
+	 * @param serverId
+	 * @param startAddress
+	 * @param count
+	 * @return
+	 */
+	public static ModbusRequest readDInputs(int serverId, int startAddress, int count) {
+		checkCount(count, MAX_READ_COILS);
+		return new ModbusRequest(serverId, FN_READ_DISCRETE_INPUTS, startAddress, count, 0, null, null);
+	}
+
+	/**
+	 * READ HOLDING REGISTERs request
+	 * @param serverId
+	 * @param startAddress
+	 * @param count
+	 * @return
+	 */
+	public static ModbusRequest readHoldings(int serverId, int startAddress, int count) {
+		checkCount(count, MAX_READ_REGS);
+		return new ModbusRequest(serverId, FN_READ_HOLDING_REGISTERS, startAddress, count, 0, null, null);
+	}
+
+	/**
+	 * READ INPUT REGISTERs request
+	 * @param serverId
+	 * @param startAddress
+	 * @param count
+	 * @return
+	 */
+	public static ModbusRequest readAInputs(int serverId, int startAddress, int count) {
+		checkCount(count, MAX_READ_REGS);
+		return new ModbusRequest(serverId, FN_READ_INPUT_REGISTERS, startAddress, count, 0, null, null);
+	}
+
+	/**
+	 * WRITE COIL request
+	 * @param serverId
+	 * @param coilAddress
+	 * @param value
+	 * @return
+	 */
+	public static ModbusRequest writeCoil(int serverId, int coilAddress, boolean value) {
+		return new ModbusRequest(serverId, FN_WRITE_SINGLE_COIL, coilAddress, 1, value ? 1 : 0, null, null);
+	}
+
+	/**
+	 * WRITE SINGLE REGISTER request
+	 * @param serverId
+	 * @param regAddress
+	 * @param value
+	 * @return
+	 */
+	public static ModbusRequest writeRegister(int serverId, int regAddress, int value) {
+		return new ModbusRequest(serverId, FN_WRITE_SINGLE_REGISTER, regAddress, 1, value, null, null);
+	}
+
+	/**
+	 * WRITE MULTIPLE COILS request, values are copied
+	 * @param serverId
+	 * @param startAddress
+	 * @param values
+	 * @return
+	 */
+	public static ModbusRequest writeCoils(int serverId, int startAddress, boolean[] values) {
+		checkCount(values.length, MAX_WRITE_COILS);
+		long[] packed = new long[(values.length + 63) >> 6];
+		for (int i = 0; i < values.length; i++) {
+			if (values[i])
+				packed[i >> 6] |= 1L << (i & 63);
+		}
+		return new ModbusRequest(serverId, FN_WRITE_MULTIPLE_COILS, startAddress, values.length, 0, null, packed);
+	}
+
+	/**
+	 * WRITE MULTIPLE COILS request from packed bits, values are copied
+	 * @param serverId
+	 * @param startAddress
+	 * @param values	coil i is bit (i &amp; 63) of values[i &gt;&gt; 6]
+	 * @param count		number of coils
+	 * @return
+	 */
+	public static ModbusRequest writeCoils(int serverId, int startAddress, long[] values, int count) {
+		checkCount(count, MAX_WRITE_COILS);
+		long[] packed = new long[(count + 63) >> 6];
+		System.arraycopy(values, 0, packed, 0, packed.length);
+		if ((count & 63) != 0)
+			packed[packed.length - 1] &= (1L << (count & 63)) - 1;
+		return new ModbusRequest(serverId, FN_WRITE_MULTIPLE_COILS, startAddress, count, 0, null, packed);
+	}
+
+	/**
+	 * WRITE MULTIPLE COILS request from a bit set, values are copied
+	 * @param serverId
+	 * @param startAddress
+	 * @param values
+	 * @param fromIndex	index of the bit for startAddress
+	 * @param count		number of coils
+	 * @return
+	 */
+	public static ModbusRequest writeCoils(int serverId, int startAddress, BitSet values, int fromIndex, int count) {
+		checkCount(count, MAX_WRITE_COILS);
+		long[] packed = new long[(count + 63) >> 6];
+		int end = fromIndex + count;
+		for (int k = values.nextSetBit(fromIndex); (k >= 0) && (k < end); k = values.nextSetBit(k + 1))
+			packed[(k - fromIndex) >> 6] |= 1L << ((k - fromIndex) & 63);
+		return new ModbusRequest(serverId, FN_WRITE_MULTIPLE_COILS, startAddress, count, 0, null, packed);
+	}
+
+	/**
+	 * WRITE MULTIPLE registers request, values are copied
+	 * @param serverId
+	 * @param startAddress
+	 * @param values
+	 * @return
+	 */
+	public static ModbusRequest writeRegisters(int serverId, int startAddress, int[] values) {
+		checkCount(values.length, MAX_WRITE_REGS);
+		int[] copy = new int[values.length];
+		System.arraycopy(values, 0, copy, 0, values.length);
+		return new ModbusRequest(serverId, FN_WRITE_MULTIPLE_REGISTERS, startAddress, values.length, 0, copy, null);
+	}
+
+	/**
+	 * MASK WRITE REGISTER request
+	 * @param serverId
+	 * @param regAddress
+	 * @param andMask
+	 * @param orMask
+	 * @return
+	 * @see ModbusClient#InitMaskWriteRegisterRequest(int, int, int, int)
+	 */
+	public static ModbusRequest maskWriteRegister(int serverId, int regAddress, int andMask, int orMask) {
+		return new ModbusRequest(serverId, FN_MASK_WRITE_REGISTER, regAddress, 1, andMask, orMask, null, null);
+	}
+
+	/**
+	 * READ/WRITE MULTIPLE registers request, values are copied
+	 * @param serverId
+	 * @param readAddress
+	 * @param readCount
+	 * @param writeAddress
+	 * @param values
+	 * @return
+	 */
+	public static ModbusRequest readWriteRegisters(int serverId, int readAddress, int readCount, int writeAddress, int[] values) {
+		checkCount(readCount, MAX_READ_REGS);
+		checkCount(values.length, MAX_READ_WRITE_REGS);
+		int[] copy = new int[values.length];
+		System.arraycopy(values, 0, copy, 0, values.length);
+		return new ModbusRequest(serverId, FN_READ_WRITE_MULTIPLE_REGISTERS, readAddress, readCount, 0, writeAddress, copy, null);
+	}
+
+	private static void checkCount(int count, int max) {
+		if ((count < 1) || (count > max))
+			throw new IllegalArgumentException("Invalid count: " + count);
+	}
+
+	/**
+	 * Initialize the request in the client, ready for {@link ModbusClient#execRequest()}
+	 * @param client
+	 */
+	public void initRequest(ModbusClient client) {
+		switch (function) {
+		case FN_READ_COILS:
+			client.InitReadCoilsRequest(serverId, address, count);
+			break;
+		case FN_READ_DISCRETE_INPUTS:
+			client.InitReadDInputsRequest(serverId, address, count);
+			break;
+		case FN_READ_HOLDING_REGISTERS:
+			client.InitReadHoldingsRequest(serverId, address, count);
+			break;
+		case FN_READ_INPUT_REGISTERS:
+			client.InitReadAInputsRequest(serverId, address, count);
+			break;
+		case FN_WRITE_SINGLE_COIL:
+			client.InitWriteCoilRequest(serverId, address, value != 0);
+			break;
+		case FN_WRITE_SINGLE_REGISTER:
+			client.InitWriteRegisterRequest(serverId, address, value);
+			break;
+		case FN_WRITE_MULTIPLE_COILS:
+			client.InitWriteCoilsRequest(serverId, address, coils, count);
+			break;
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			client.InitWriteRegistersRequest(serverId, address, registers);
+			break;
+		case FN_MASK_WRITE_REGISTER:
+			client.InitMaskWriteRegisterRequest(serverId, address, value, param);
+			break;
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			client.InitReadWriteRegistersRequest(serverId, address, count, param, registers, registers.length);
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	public int getFunction() {
+		return function;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	/**
+	 * Number of registers or coils, registers read for FC23
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Request writes to the device
+	 * @return
+	 */
+	public boolean isWrite() {
+		return (function != FN_READ_COILS) && (function != FN_READ_DISCRETE_INPUTS) 
+				&& (function != FN_READ_HOLDING_REGISTERS) && (function != FN_READ_INPUT_REGISTERS);
+	}
+}
@@ -0,0 +1,82 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Response of a request, independent of the {@link ModbusClient} which executed it. 
+ * Filled by {@link ModbusClient#getResponse(ModbusResponse)}. 
+ * Responses taken from a {@link ModbusResponsePool} go back with {@link #release()} once read.
+ * @author TiJOS
+ *
+ */
+public class ModbusResponse extends ModbusResponseData {
+
+	private int serverId;
+	private int result = -1; // RESULT_*
+	private int address = -1;
+	private int count = -1;
+
+	private final ModbusResponsePool pool; // null if not pooled
+	boolean inUse; // guarded by pool
+
+	/**
+	 * Initialize a response which is not pooled
+	 */
+	public ModbusResponse() {
+		this(null);
+	}
+
+	ModbusResponse(ModbusResponsePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Return the response to its pool, it must not be used any more. Nothing happens if it is not pooled
+	 */
+	public void release() {
+		if (pool != null)
+			pool.release(this);
+	}
+
+	void set(int serverId, int result, int address, int count) {
+		this.serverId = serverId;
+		this.result = result;
+		this.address = address;
+		this.count = count;
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	/**
+	 * Result of the request
+	 * @return RESULT_*
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	/**
+	 * Get modbus exception code
+	 * @return 
+	 */
+	public int getExceptionCode() {
+		if ((result != ModbusClient.RESULT_EXCEPTION) || (getPduSize() < 2))
+			return 0;
+		else
+			return readByteFromPDU(1, true);
+	}
+
+	public int getResponseAddress() {
+		if ((result == ModbusClient.RESULT_OK) && (address >= 0))
+			return address;
+		else
+			throw new IllegalStateException();
+	}
+
+	public int getResponseCount() {
+		if ((result == ModbusClient.RESULT_OK) && (count >= 0))
+			return count;
+		else
+			throw new IllegalStateException();
+	}
+}
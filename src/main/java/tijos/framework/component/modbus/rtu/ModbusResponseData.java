@@ -0,0 +1,200 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.util.BitSet;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+/**
+ * Accessors of a read response shared by {@link ModbusClient} and {@link ModbusResponse}, 
+ * the range of the response is given by {@link #getResponseAddress()} and {@link #getResponseCount()}.
+ * @author TiJOS
+ *
+ */
+public abstract class ModbusResponseData extends ModbusPdu {
+
+	/**
+	 * Address of the first register or bit of the response
+	 * @return
+	 * @throws IllegalStateException if there is no successful response
+	 */
+	public abstract int getResponseAddress();
+
+	/**
+	 * Number of registers or bits of the response
+	 * @return
+	 * @throws IllegalStateException if there is no successful response
+	 */
+	public abstract int getResponseCount();
+
+	/**
+	 * Get discrete value of a read coils or discrete inputs response.<br>
+	 * @param address - Address of bit. It must be in the range specified in request.
+	 * You can use {@link #getResponseAddress()} and {@link #getResponseCount()}.
+	 * @return Value of bit at given address.
+	 */
+	public boolean getResponseBit(int address) {
+		if ((getFunction() == FN_READ_COILS) || (getFunction() == FN_READ_DISCRETE_INPUTS)) {
+			int offset = address - getResponseAddress();
+			if ((offset < 0) || (offset >= getResponseCount()))
+				throw new IndexOutOfBoundsException();
+			return readBitFromPDU(2, offset);
+		}
+		else
+			throw new IllegalStateException();
+	}
+
+	/**
+	 * Get register value of a read holding or input registers response.<br>
+	 * There are various utility methods in {@link ModbusPdu} to manipulate int16 values.
+	 * @param address - Address of register. It must be in the range specified in request.
+	 * You can use {@link #getResponseAddress()} and {@link #getResponseCount()}.
+	 * @param unsigned - Should value stored in PDU be interpreted as signed or unsigned.
+	 * @return Value of register at given address. This value is 16 bit signed (-32768..+32767) or  
+	 * 16 bit unsigned (0..65535) depending on <b>unsigned</b> parameter.
+	 */
+	public int getResponseRegister(int address, boolean unsigned) {
+		if (hasRegisters()) {
+			int offset = address - getResponseAddress();
+			if ((offset < 0) || (offset >= getResponseCount()))
+				throw new IndexOutOfBoundsException();
+			return readInt16FromPDU(2 + offset * 2, unsigned);
+		}
+		else
+			throw new IllegalStateException();
+	}
+
+	/**
+	 * Offset of bits in the response, checked once for the whole block
+	 * @param address	address of the first bit
+	 * @param count		number of bits
+	 * @return
+	 */
+	private int bitOffset(int address, int count) {
+		if ((getFunction() != FN_READ_COILS) && (getFunction() != FN_READ_DISCRETE_INPUTS))
+			throw new IllegalStateException();
+		int offset = address - getResponseAddress();
+		if ((offset < 0) || (count < 0) || (offset + count > getResponseCount()))
+			throw new IndexOutOfBoundsException();
+		return offset;
+	}
+
+	/**
+	 * Get consecutive coils or discrete inputs of the response as packed bits
+	 * @param address	address of the first bit, it must be in the range of the response
+	 * @param dest		bit i is bit (i &amp; 63) of dest[i &gt;&gt; 6]
+	 * @param destBit	first bit in dest
+	 * @param count		number of bits
+	 */
+	public void getResponseBits(int address, long[] dest, int destBit, int count) {
+		readBitsFromPDU(2, bitOffset(address, count), dest, destBit, count);
+	}
+
+	/**
+	 * Get consecutive coils or discrete inputs of the response into a bit set
+	 * @param address	address of the first bit, it must be in the range of the response
+	 * @param dest
+	 * @param destIndex	first bit in dest
+	 * @param count		number of bits
+	 */
+	public void getResponseBits(int address, BitSet dest, int destIndex, int count) {
+		readBitsFromPDU(2, bitOffset(address, count), dest, destIndex, count);
+	}
+
+	/**
+	 * Response holds registers read by FC03, FC04 or FC23
+	 * @return
+	 */
+	private boolean hasRegisters() {
+		int fn = getFunction();
+		return (fn == FN_READ_HOLDING_REGISTERS) || (fn == FN_READ_INPUT_REGISTERS) 
+				|| (fn == FN_READ_WRITE_MULTIPLE_REGISTERS);
+	}
+
+	/**
+	 * PDU offset of registers in the response, checked once for the whole block
+	 * @param address	address of the first register
+	 * @param registers	number of registers
+	 * @return
+	 */
+	private int registerOffset(int address, int registers) {
+		if (!hasRegisters())
+			throw new IllegalStateException();
+		int offset = address - getResponseAddress();
+		if ((offset < 0) || (registers < 0) || (offset + registers > getResponseCount()))
+			throw new IndexOutOfBoundsException();
+		return 2 + offset * 2;
+	}
+
+	/**
+	 * Get consecutive register values of the response in one pass
+	 * @param address	address of the first register, it must be in the range of the response
+	 * @param dest		destination
+	 * @param destOffset
+	 * @param count		number of registers
+	 */
+	public void getResponseRegisters(int address, short[] dest, int destOffset, int count) {
+		readInt16sFromPDU(registerOffset(address, count), dest, destOffset, count);
+	}
+
+	/**
+	 * Get consecutive register values of the response in one pass
+	 * @param address	address of the first register, it must be in the range of the response
+	 * @param dest		destination
+	 * @param destOffset
+	 * @param count		number of registers
+	 * @param unsigned	0..65535 or -32768..32767
+	 */
+	public void getResponseRegisters(int address, int[] dest, int destOffset, int count, boolean unsigned) {
+		readInt16sFromPDU(registerOffset(address, count), dest, destOffset, count, unsigned);
+	}
+
+	/**
+	 * Get consecutive 32 bit integers, 2 registers each
+	 * @param address	address of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ModbusConstants.ORDER_*
+	 */
+	public void getResponseInt32s(int address, int[] dest, int destOffset, int count, int order) {
+		readInt32sFromPDU(registerOffset(address, count * 2), dest, destOffset, count, order);
+	}
+
+	/**
+	 * Get consecutive float values, 2 registers each
+	 * @param address	address of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ModbusConstants.ORDER_*
+	 */
+	public void getResponseFloats(int address, float[] dest, int destOffset, int count, int order) {
+		readFloatsFromPDU(registerOffset(address, count * 2), dest, destOffset, count, order);
+	}
+
+	/**
+	 * Get consecutive 64 bit integers, 4 registers each
+	 * @param address	address of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ModbusConstants.ORDER_*
+	 */
+	public void getResponseInt64s(int address, long[] dest, int destOffset, int count, int order) {
+		readInt64sFromPDU(registerOffset(address, count * 4), dest, destOffset, count, order);
+	}
+
+	/**
+	 * Get consecutive double values, 4 registers each
+	 * @param address	address of the first register
+	 * @param dest
+	 * @param destOffset
+	 * @param count		number of values
+	 * @param order		ModbusConstants.ORDER_*
+	 */
+	public void getResponseDoubles(int address, double[] dest, int destOffset, int count, int order) {
+		readDoublesFromPDU(registerOffset(address, count * 4), dest, destOffset, count, order);
+	}
+}
@@ -0,0 +1,57 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Bounded pool of preallocated {@link ModbusResponse}s, returned with {@link ModbusResponse#release()}
+ * @author TiJOS
+ *
+ */
+public class ModbusResponsePool {
+
+	private final ModbusResponse[] free;
+	private int freeCount;
+
+	/**
+	 * Initialize pool, all responses are allocated at once
+	 * @param capacity number of responses
+	 */
+	public ModbusResponsePool(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException();
+		free = new ModbusResponse[capacity];
+		for (int i = 0; i < capacity; i++)
+			free[i] = new ModbusResponse(this);
+		freeCount = capacity;
+	}
+
+	/**
+	 * Take a response from the pool
+	 * @return response, null if all responses are in use
+	 */
+	public synchronized ModbusResponse acquire() {
+		if (freeCount == 0)
+			return null;
+		ModbusResponse response = free[--freeCount];
+		free[freeCount] = null;
+		response.inUse = true;
+		return response;
+	}
+
+	synchronized void release(ModbusResponse response) {
+		if (!response.inUse)
+			throw new IllegalStateException("Response released twice");
+		response.inUse = false;
+		free[freeCount++] = response;
+	}
+
+	/**
+	 * Number of responses available
+	 * @return
+	 */
+	public synchronized int getAvailable() {
+		return freeCount;
+	}
+
+	public int getCapacity() {
+		return free.length;
+	}
+}
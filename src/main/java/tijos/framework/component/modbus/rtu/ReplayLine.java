@@ -0,0 +1,157 @@
+package tijos.framework.component.modbus.rtu;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import tijos.framework.component.rs485.SerialLine;
+
+/**
+ * Serial line answering from a capture, see {@link ReplayTransport}. 
+ * Each write takes the next captured request, the response captured after it is received 
+ * at the captured delay divided by the speed.
+ *
+ */
+class ReplayLine implements SerialLine {
+
+	private final CaptureReader reader;
+	private int speed = 1; // 0 for no delay
+	private boolean loop;
+	private long mismatches;
+	private long requests;
+
+	private final byte[] request = new byte[256];
+	private final byte[] response = new byte[256];
+	private int responseLength;
+	private int responsePos;
+	private long responseDue; // System.nanoTime() the response is received
+	private long requestEnd; // System.nanoTime() the next captured request was sent, -1 at the end
+
+	ReplayLine(CaptureReader reader) {
+		this.reader = reader;
+	}
+
+	synchronized void setSpeed(int speed) {
+		this.speed = speed;
+	}
+
+	synchronized int getSpeed() {
+		return speed;
+	}
+
+	synchronized void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+
+	synchronized long getMismatches() {
+		return mismatches;
+	}
+
+	synchronized long getRequests() {
+		return requests;
+	}
+
+	@Override
+	public void setWorkParameters(int dataBitNum, int stopBitNum, int parity, int baudRate) throws IOException {
+	}
+
+	@Override
+	public synchronized void clearInput() throws IOException {
+		responseLength = 0;
+		responsePos = 0;
+	}
+
+	@Override
+	public synchronized void write(byte[] buffer, int start, int length) throws IOException {
+		if (!nextRequest()) {
+			if (!loop)
+				throw new EOFException("End of capture");
+			reader.rewind();
+			if (!nextRequest())
+				throw new EOFException("No request in capture");
+		}
+		requests++;
+		long now = System.nanoTime();
+		long sent = reader.getTimestamp();
+		int len = reader.getFrame(request, 0);
+		if (!equals(request, len, buffer, start, length))
+			mismatches++;
+
+		// response is the frame received before the next request
+		responseLength = 0;
+		responsePos = 0;
+		requestEnd = -1;
+		long position = reader.getPosition();
+		while (reader.next()) {
+			if (reader.getDirection() == FrameTrace.TX) {
+				requestEnd = scale(now, reader.getTimestamp() - sent);
+				break;
+			}
+			if (responseLength == 0) {
+				responseLength = reader.getFrame(response, 0);
+				responseDue = scale(now, reader.getTimestamp() - sent);
+			}
+			position = reader.getPosition();
+		}
+		reader.seek(position);
+	}
+
+	private boolean nextRequest() throws IOException {
+		while (reader.next()) {
+			if (reader.getDirection() == FrameTrace.TX)
+				return true;
+		}
+		return false;
+	}
+
+	private long scale(long now, long delay) {
+		return (speed > 0) ? now + delay / speed : now;
+	}
+
+	private static boolean equals(byte[] a, int aLength, byte[] b, int bStart, int bLength) {
+		if (aLength != bLength)
+			return false;
+		for (int i = 0; i < aLength; i++) {
+			if (a[i] != b[bStart + i])
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized int read(byte[] buffer, int start, int length) throws IOException {
+		if ((responsePos >= responseLength) || (System.nanoTime() < responseDue))
+			return 0;
+		int n = Math.min(length, responseLength - responsePos);
+		System.arraycopy(response, responsePos, buffer, start, n);
+		responsePos += n;
+		return n;
+	}
+
+	@Override
+	public int read(byte[] buffer, int start, int length, int timeout) throws IOException {
+		long due;
+		synchronized (this) {
+			if (responsePos < responseLength)
+				due = responseDue;
+			else if (speed == 0)
+				return 0; // nothing was received, time out at once
+			else
+				due = (requestEnd >= 0) ? requestEnd : Long.MAX_VALUE;
+		}
+		long wait = due - System.nanoTime();
+		if (wait > 0) {
+			try {
+				long max = timeout * 1000000L;
+				Thread.sleep(Math.min(wait, max) / 1000000, (int) (Math.min(wait, max) % 1000000));
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+		}
+		return read(buffer, start, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
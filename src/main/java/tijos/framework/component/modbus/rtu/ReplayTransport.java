@@ -0,0 +1,68 @@
+package tijos.framework.component.modbus.rtu;
+
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Transport serving responses from a {@link FrameCapture} file instead of a bus. 
+ * Each request takes the next captured request and receives the response captured after it, 
+ * which goes through the same decoding as on the bus, so timeouts, CRC errors and exceptions 
+ * are reproduced. Requests are expected in the captured order, see {@link #getMismatches()}.
+ * @author TiJOS
+ *
+ */
+public class ReplayTransport extends RtuTransportUART {
+
+	private final ReplayLine line;
+
+	/**
+	 * Initialize with capture
+	 * @param reader	capture, closed with the transport
+	 * @param timeout	timeout for responses not captured, only waited at original speed
+	 */
+	public ReplayTransport(CaptureReader reader, int timeout) {
+		this(new ReplayLine(reader), timeout);
+	}
+
+	private ReplayTransport(ReplayLine line, int timeout) {
+		super(new TiRS485(line), timeout, 0);
+		this.line = line;
+	}
+
+	/**
+	 * Set replay speed
+	 * @param speed	1 for the captured timing, n for n times faster, 0 without any delay
+	 */
+	public void setSpeed(int speed) {
+		if (speed < 0)
+			throw new IllegalArgumentException();
+		line.setSpeed(speed);
+	}
+
+	public int getSpeed() {
+		return line.getSpeed();
+	}
+
+	/**
+	 * Start over at the end of the capture instead of failing with EOFException, e.g. for benchmarks
+	 * @param loop
+	 */
+	public void setLoop(boolean loop) {
+		line.setLoop(loop);
+	}
+
+	/**
+	 * Number of requests replayed
+	 * @return
+	 */
+	public long getRequests() {
+		return line.getRequests();
+	}
+
+	/**
+	 * Number of requests which differ from the captured request they were answered for
+	 * @return
+	 */
+	public long getMismatches() {
+		return line.getMismatches();
+	}
+}
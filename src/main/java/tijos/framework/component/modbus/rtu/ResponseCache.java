@@ -0,0 +1,371 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+/**
+ * Read-through cache of read responses (FC01..04) for {@link ModbusClient}.
+ * A read is answered from a cached block of the same server and table if the block covers the
+ * requested range and has not expired, so a smaller read is served by a larger one.
+ * Writes through the client invalidate the cached blocks they overlap.
+ * The number of blocks is fixed, the least recently used block is evicted.
+ * @author TiJOS
+ *
+ */
+public class ResponseCache {
+
+	private static final int SERVERS = 248; // id 0..247
+	private static final int MAX_DATA = 250; // 125 registers or 2000 bits
+
+	// blocks, linked in LRU order from head (most recent) to tail
+	private final byte[] blockServer;
+	private final byte[] blockFunction;
+	private final int[] blockAddress;
+	private final int[] blockCount;
+	private final long[] expires;
+	private final byte[][] data;
+	private final int[] prev;
+	private final int[] next;
+	private int head = -1;
+	private int tail = -1;
+	private int free; // free blocks chained by next
+	private int size;
+
+	private int defaultTtl;
+	private final int[] serverTtl = new int[SERVERS]; // -1 if not set
+
+	// range rules
+	private int ruleCount;
+	private int[] ruleServer = new int[0];
+	private int[] ruleFunction = new int[0];
+	private int[] ruleAddress = new int[0];
+	private int[] ruleLength = new int[0];
+	private int[] ruleTtl = new int[0];
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Initialize cache, memory is allocated for all blocks at once
+	 * @param capacity	number of cached blocks
+	 * @param ttl		default time to live in ms, 0 to cache only servers or ranges with their own ttl
+	 */
+	public ResponseCache(int capacity, int ttl) {
+		if ((capacity < 1) || (ttl < 0))
+			throw new IllegalArgumentException();
+		blockServer = new byte[capacity];
+		blockFunction = new byte[capacity];
+		blockAddress = new int[capacity];
+		blockCount = new int[capacity];
+		expires = new long[capacity];
+		data = new byte[capacity][MAX_DATA];
+		prev = new int[capacity];
+		next = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			next[i] = i + 1;
+		next[capacity - 1] = -1;
+		free = 0;
+		defaultTtl = ttl;
+		for (int i = 0; i < SERVERS; i++)
+			serverTtl[i] = -1;
+	}
+
+	/**
+	 * Set default time to live
+	 * @param ttl	ms, 0 not to cache
+	 */
+	public synchronized void setTtl(int ttl) {
+		if (ttl < 0)
+			throw new IllegalArgumentException();
+		defaultTtl = ttl;
+	}
+
+	/**
+	 * Set time to live of a server
+	 * @param serverId	1..247
+	 * @param ttl	ms, 0 not to cache, -1 for the default
+	 */
+	public synchronized void setTtl(int serverId, int ttl) {
+		if (ttl < -1)
+			throw new IllegalArgumentException();
+		serverTtl[serverId] = ttl;
+	}
+
+	/**
+	 * Set time to live of a register or bit range, e.g. 0 for a fast changing measurement.
+	 * A block overlapping several ranges gets the shortest time.
+	 * @param serverId	1..247
+	 * @param function	table, FN_READ_*
+	 * @param startAddress
+	 * @param count
+	 * @param ttl	ms, 0 not to cache
+	 */
+	public synchronized void setTtl(int serverId, int function, int startAddress, int count, int ttl) {
+		if ((ttl < 0) || (count < 1) || !isRead(function))
+			throw new IllegalArgumentException();
+		if (ruleCount == ruleTtl.length) {
+			int n = ruleCount * 2 + 4;
+			ruleServer = grow(ruleServer, n);
+			ruleFunction = grow(ruleFunction, n);
+			ruleAddress = grow(ruleAddress, n);
+			ruleLength = grow(ruleLength, n);
+			ruleTtl = grow(ruleTtl, n);
+		}
+		ruleServer[ruleCount] = serverId;
+		ruleFunction[ruleCount] = function;
+		ruleAddress[ruleCount] = startAddress;
+		ruleLength[ruleCount] = count;
+		ruleTtl[ruleCount] = ttl;
+		ruleCount++;
+	}
+
+	private static int[] grow(int[] a, int n) {
+		int[] b = new int[n];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * Remove all blocks of a server
+	 * @param serverId
+	 */
+	public synchronized void invalidate(int serverId) {
+		int e = head;
+		while (e >= 0) {
+			int n = next[e];
+			if ((blockServer[e] & 0xFF) == serverId)
+				release(e);
+			e = n;
+		}
+	}
+
+	/**
+	 * Remove blocks overlapping a range
+	 * @param serverId	server id, BROADCAST_ID for all servers
+	 * @param function	table, FN_READ_*
+	 * @param startAddress
+	 * @param count
+	 */
+	public synchronized void invalidate(int serverId, int function, int startAddress, int count) {
+		int e = head;
+		while (e >= 0) {
+			int n = next[e];
+			if (((serverId == BROADCAST_ID) || ((blockServer[e] & 0xFF) == serverId)) && (blockFunction[e] == function)
+					&& (blockAddress[e] < startAddress + count) && (startAddress < blockAddress[e] + blockCount[e]))
+				release(e);
+			e = n;
+		}
+	}
+
+	public synchronized void clear() {
+		while (head >= 0)
+			release(head);
+	}
+
+	/**
+	 * Number of cached blocks
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Number of reads answered from the cache
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of reads sent to the bus
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static boolean isRead(int function) {
+		return (function >= FN_READ_COILS) && (function <= FN_READ_INPUT_REGISTERS);
+	}
+
+	/**
+	 * Called before a request is sent: answer a read from the cache, or invalidate the range of a write.
+	 * A write is invalidated whatever its result, the server may have applied it anyway.
+	 * @param client	client holding the request
+	 * @param startAddress	requested address of a read
+	 * @param n		requested count of a read
+	 * @param now	current time in ms
+	 * @return true if the response has been written to the client
+	 */
+	synchronized boolean onRequest(ModbusClient client, int startAddress, int n, long now) {
+		int fn = client.getFunction();
+		int id = client.getServerId() & 0xFF;
+		switch (fn) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+			return lookup(client, id, fn, startAddress, n, now);
+		case FN_WRITE_SINGLE_COIL:
+			invalidate(id, FN_READ_COILS, client.readInt16FromPDU(1, true), 1);
+			break;
+		case FN_WRITE_MULTIPLE_COILS:
+			invalidate(id, FN_READ_COILS, client.readInt16FromPDU(1, true), client.readInt16FromPDU(3, true));
+			break;
+		case FN_WRITE_SINGLE_REGISTER:
+		case FN_MASK_WRITE_REGISTER:
+			invalidate(id, FN_READ_HOLDING_REGISTERS, client.readInt16FromPDU(1, true), 1);
+			break;
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			invalidate(id, FN_READ_HOLDING_REGISTERS, client.readInt16FromPDU(1, true),
+					client.readInt16FromPDU(3, true));
+			break;
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			invalidate(id, FN_READ_HOLDING_REGISTERS, client.readInt16FromPDU(5, true),
+					client.readInt16FromPDU(7, true));
+			break;
+		default:
+			break;
+		}
+		return false;
+	}
+
+	private boolean lookup(ModbusClient client, int id, int fn, int startAddress, int n, long now) {
+		int e = head;
+		while (e >= 0) {
+			int nx = next[e];
+			if (expires[e] <= now)
+				release(e);
+			else if (((blockServer[e] & 0xFF) == id) && (blockFunction[e] == fn) && (blockAddress[e] <= startAddress)
+					&& (startAddress + n <= blockAddress[e] + blockCount[e])) {
+				respond(client, e, startAddress - blockAddress[e], n);
+				moveToHead(e);
+				hits++;
+				return true;
+			}
+			e = nx;
+		}
+		misses++;
+		return false;
+	}
+
+	/**
+	 * Build the response PDU from a block
+	 * @param client
+	 * @param e		block
+	 * @param offset	offset of the requested range in the block, in registers or bits
+	 * @param n		requested count
+	 */
+	private void respond(ModbusClient client, int e, int offset, int n) {
+		int fn = blockFunction[e];
+		byte[] d = data[e];
+		int bytes;
+		if (fn <= FN_READ_DISCRETE_INPUTS) {
+			bytes = ModbusClient.bytesCount(n);
+			client.setPduSize(2 + bytes);
+			int last = ModbusClient.bytesCount(blockCount[e]);
+			for (int i = 0; i < bytes; i++) {
+				int bit = offset + (i << 3);
+				int b = bit >> 3;
+				int s = bit & 7;
+				int v = (d[b] & 0xFF) >> s;
+				if ((s != 0) && (b + 1 < last))
+					v |= (d[b + 1] & 0xFF) << (8 - s);
+				if ((i == bytes - 1) && ((n & 7) != 0))
+					v &= (1 << (n & 7)) - 1;
+				client.writeByteToPDU(2 + i, (byte) v);
+			}
+		} else {
+			bytes = n * 2;
+			client.setPduSize(2 + bytes);
+			client.writeToPdu(d, offset * 2, bytes, 2);
+		}
+		client.writeByteToPDU(0, (byte) fn);
+		client.writeByteToPDU(1, (byte) bytes);
+	}
+
+	/**
+	 * Called after a request has been executed, stores the response of a read
+	 * @param client	client holding the response
+	 * @param startAddress	requested address of a read
+	 * @param n		requested count of a read
+	 * @param now	current time in ms
+	 */
+	synchronized void onResponse(ModbusClient client, int startAddress, int n, long now) {
+		int fn = client.getFunction();
+		if ((client.getResult() == ModbusClient.RESULT_OK) && (fn >= FN_READ_COILS) && (fn <= FN_READ_INPUT_REGISTERS))
+			store(client, client.getServerId() & 0xFF, fn, startAddress, n, now);
+	}
+
+	private void store(ModbusClient client, int id, int fn, int startAddress, int n, long now) {
+		int ttl = ttl(id, fn, startAddress, n);
+		if (ttl <= 0)
+			return;
+		// older blocks overlapping the range must not answer for it any more
+		invalidate(id, fn, startAddress, n);
+		int e = free;
+		if (e >= 0)
+			free = next[e];
+		else {
+			e = tail;
+			unlink(e);
+			size--;
+		}
+		blockServer[e] = (byte) id;
+		blockFunction[e] = (byte) fn;
+		blockAddress[e] = startAddress;
+		blockCount[e] = n;
+		expires[e] = now + ttl;
+		client.readFromPdu(2, client.readByteFromPDU(1, true), data[e], 0);
+		linkHead(e);
+		size++;
+	}
+
+	private int ttl(int id, int fn, int startAddress, int n) {
+		int ttl = -1;
+		for (int i = 0; i < ruleCount; i++) {
+			if ((ruleServer[i] == id) && (ruleFunction[i] == fn) && (ruleAddress[i] < startAddress + n)
+					&& (startAddress < ruleAddress[i] + ruleLength[i]) && ((ttl < 0) || (ruleTtl[i] < ttl)))
+				ttl = ruleTtl[i];
+		}
+		if (ttl >= 0)
+			return ttl;
+		return (serverTtl[id] >= 0) ? serverTtl[id] : defaultTtl;
+	}
+
+	private void release(int e) {
+		unlink(e);
+		next[e] = free;
+		free = e;
+		size--;
+	}
+
+	private void moveToHead(int e) {
+		if (e != head) {
+			unlink(e);
+			linkHead(e);
+		}
+	}
+
+	private void linkHead(int e) {
+		prev[e] = -1;
+		next[e] = head;
+		if (head >= 0)
+			prev[head] = e;
+		head = e;
+		if (tail < 0)
+			tail = e;
+	}
+
+	private void unlink(int e) {
+		if (prev[e] >= 0)
+			next[prev[e]] = next[e];
+		else
+			head = next[e];
+		if (next[e] >= 0)
+			prev[next[e]] = prev[e];
+		else
+			tail = prev[e];
+	}
+}
@@ -0,0 +1,17 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Notified by {@link ModbusClient} after each executed request, on the thread which executed it. 
+ * The response is only valid in the client during the call.
+ * @author TiJOS
+ *
+ */
+public interface ResponseListener {
+
+	/**
+	 * A request has been executed
+	 * @param client	client holding the response
+	 * @param result	RESULT_*
+	 */
+	public void onResponse(ModbusClient client, int result);
+}
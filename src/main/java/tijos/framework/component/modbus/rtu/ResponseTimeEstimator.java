@@ -0,0 +1,128 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Response timeout estimator per server id and function code, like the TCP 
+ * retransmission timer (RFC 6298): timeout = SRTT + 4 * RTTVAR, doubled after each timeout. 
+ * Samples are the device latency without the transmission time of the response, 
+ * so the same estimate fits short and long responses.  
+ * Entries are kept in a fixed size table, an entry may be replaced by another one 
+ * with the same hash when the table is full.
+ * @author TiJOS
+ *
+ */
+public class ResponseTimeEstimator {
+
+	private static final int MAX_BACKOFF = 6;
+
+	private final int[] keys; // (serverId << 8) | function, -1 for empty
+	private final int[] srtt; // smoothed latency, microseconds * 8
+	private final int[] rttvar; // latency variation, microseconds * 4
+	private final byte[] backoff;
+	private final int mask;
+
+	private int minTimeout;
+
+	/**
+	 * Initialize estimator
+	 * @param capacity	number of server id/function pairs tracked, rounded up to a power of 2
+	 * @param minTimeout	lower limit of the timeout in ms
+	 */
+	public ResponseTimeEstimator(int capacity, int minTimeout) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		this.keys = new int[size];
+		this.srtt = new int[size];
+		this.rttvar = new int[size];
+		this.backoff = new byte[size];
+		this.mask = size - 1;
+		this.minTimeout = minTimeout;
+		for (int i = 0; i < size; i++)
+			keys[i] = -1;
+	}
+
+	public synchronized void setMinTimeout(int minTimeout) {
+		this.minTimeout = minTimeout;
+	}
+
+	public synchronized int getMinTimeout() {
+		return minTimeout;
+	}
+
+	private static int key(int serverId, int function) {
+		return ((serverId & 0xFF) << 8) | (function & 0xFF);
+	}
+
+	private int find(int key) {
+		int start = (key * 0x9E3779B1 >>> 16) & mask;
+		for (int i = 0; i <= mask; i++) {
+			int slot = (start + i) & mask;
+			if ((keys[slot] == key) || (keys[slot] < 0))
+				return slot;
+		}
+		return start;
+	}
+
+	/**
+	 * Timeout for the response latency of a request
+	 * @param serverId
+	 * @param function
+	 * @param maxTimeout	configured timeout, upper limit
+	 * @return timeout in ms, maxTimeout until there is a sample
+	 */
+	public synchronized int getTimeout(int serverId, int function, int maxTimeout) {
+		int key = key(serverId, function);
+		int slot = find(key);
+		if (keys[slot] != key)
+			return maxTimeout;
+		long micros = (srtt[slot] >> 3) + Math.max(1000, rttvar[slot]); // SRTT + 4 * RTTVAR, at least 1 ms
+		micros <<= backoff[slot];
+		long ms = (micros + 999) / 1000;
+		return (int) Math.min(maxTimeout, Math.max(minTimeout, ms));
+	}
+
+	/**
+	 * Add measured latency of a response
+	 * @param serverId
+	 * @param function
+	 * @param latencyMicros time from end of request to the response minus its transmission time
+	 */
+	public synchronized void addSample(int serverId, int function, long latencyMicros) {
+		int r = (int) Math.min(Math.max(0, latencyMicros), Integer.MAX_VALUE >> 4);
+		int key = key(serverId, function);
+		int slot = find(key);
+		if (keys[slot] != key) {
+			keys[slot] = key;
+			srtt[slot] = r << 3;
+			rttvar[slot] = (r / 2) << 2;
+		} else {
+			// RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R
+			int err = r - (srtt[slot] >> 3);
+			srtt[slot] += err;
+			rttvar[slot] += Math.abs(err) - (rttvar[slot] >> 2);
+		}
+		backoff[slot] = 0;
+	}
+
+	/**
+	 * A request timed out, double the timeout until the next response
+	 * @param serverId
+	 * @param function
+	 */
+	public synchronized void onTimeout(int serverId, int function) {
+		int key = key(serverId, function);
+		int slot = find(key);
+		if ((keys[slot] == key) && (backoff[slot] < MAX_BACKOFF))
+			backoff[slot]++;
+	}
+
+	/**
+	 * Forget all samples
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i <= mask; i++) {
+			keys[i] = -1;
+			backoff[i] = 0;
+		}
+	}
+}
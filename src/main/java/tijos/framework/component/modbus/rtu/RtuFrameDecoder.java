@@ -0,0 +1,175 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+/**
+ * Single pass MODBUS RTU response decoder. 
+ * Bytes are appended to the ADU buffer in chunks of any size, the frame length is known 
+ * from the function code or the byte count field and CRC is updated as the bytes arrive, 
+ * so the frame is verified the moment its last byte is received.
+ *
+ */
+public class RtuFrameDecoder {
+
+	/**
+	 * Decoder status
+	 */
+	public static final int NEED_MORE = 0;
+	public static final int COMPLETE = 1;
+	public static final int BAD_ID = 2;
+	public static final int BAD_FUNCTION = 3;
+	public static final int BAD_LENGTH = 4;
+	public static final int BAD_CRC = 5;
+
+	private static final int MIN_FRAME = 5; // id(1), function(1), exception code(1), crc(2)
+
+	private final byte[] buffer; // ADU: [ID(1), PDU(n), CRC(2)]
+
+	private byte serverId;
+	private int function;
+	private int expectedPduSize;
+
+	private int length;
+	private int frameLength; // -1 until known
+	private int crc;
+	private int status;
+
+	/**
+	 * Initialize with ADU buffer
+	 * @param buffer buffer the received bytes are written to, MAX_PDU_SIZE + 3 at least
+	 */
+	public RtuFrameDecoder(byte[] buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Start a new frame
+	 * @param serverId	expected server id
+	 * @param function	function code of request
+	 * @param expectedPduSize	expected size of normal response PDU
+	 */
+	public void reset(byte serverId, int function, int expectedPduSize) {
+		this.serverId = serverId;
+		this.function = function;
+		this.expectedPduSize = expectedPduSize;
+		this.length = 0;
+		this.frameLength = -1;
+		this.crc = 0xFFFF;
+		this.status = NEED_MORE;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Number of bytes received
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Frame length, -1 if not known yet
+	 * @return
+	 */
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Response is a MODBUS exception
+	 * @return
+	 */
+	public boolean isException() {
+		return (length > 1) && ((buffer[1] & 0x80) != 0);
+	}
+
+	/**
+	 * Number of bytes which may be read at most without reading past the end of frame
+	 * @return
+	 */
+	public int remaining() {
+		if (frameLength >= 0)
+			return frameLength - length;
+		// shortest frame is an exception, any response is at least that long 
+		return MIN_FRAME - length;
+	}
+
+	/**
+	 * Process bytes appended to the buffer at {@link #getLength()}
+	 * @param count number of bytes appended
+	 * @return status, NEED_MORE until the frame is complete or invalid 
+	 */
+	public int update(int count) {
+		if ((status != NEED_MORE) || (count <= 0))
+			return status;
+
+		int start = length;
+		length += count;
+		crc = ModbusPdu.updateCRC16(crc, buffer, start, count);
+
+		if (start < 1) {
+			if (buffer[0] != serverId)
+				return status = BAD_ID;
+		}
+
+		if ((start < 2) && (length >= 2)) {
+			// bit7 means exception
+			if ((buffer[1] & 0x7F) != function)
+				return status = BAD_FUNCTION;
+			if ((buffer[1] & 0x80) != 0)
+				frameLength = MIN_FRAME;
+			else
+				frameLength = fixedFrameLength(function, expectedPduSize);
+		}
+
+		if ((frameLength < 0) && (length >= 3)) {
+			// id(1), function(1), byte count(1), data(n), crc(2)
+			frameLength = 5 + (buffer[2] & 0xFF);
+			if (frameLength != expectedPduSize + 3)
+				return status = BAD_LENGTH;
+		}
+
+		if ((frameLength >= 0) && (length >= frameLength)) {
+			// CRC over the whole frame including the CRC itself is 0
+			if (crc != 0)
+				return status = BAD_CRC;
+			return status = COMPLETE;
+		}
+		return NEED_MORE;
+	}
+
+	/**
+	 * Length of normal response frame which does not depend on the byte count field
+	 * @param function
+	 * @param expectedPduSize
+	 * @return frame length, -1 if given by byte count field
+	 */
+	private static int fixedFrameLength(int function, int expectedPduSize) {
+		switch (function) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			return -1;
+		case FN_WRITE_SINGLE_COIL:
+		case FN_WRITE_SINGLE_REGISTER:
+		case FN_WRITE_MULTIPLE_COILS:
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			return 8; // id(1), function(1), address(2), value or count(2), crc(2)
+		case FN_MASK_WRITE_REGISTER:
+			return 10; // id(1), function(1), address(2), and mask(2), or mask(2), crc(2)
+		default:
+			return expectedPduSize + 3;
+		}
+	}
+}
@@ -2,6 +2,7 @@
 
 package tijos.framework.component.modbus.rtu;
 
+import static tijos.framework.component.modbus.protocol.ModbusConstants.BROADCAST_ID;
 import static tijos.framework.component.modbus.protocol.ModbusConstants.MAX_PDU_SIZE;
 
 import java.io.IOException;
@@ -16,17 +17,32 @@ import tijos.framework.util.logging.Logger;
  */
 public class RtuTransportUART  implements ModbusClientTransport {
 
+	/**
+	 * Default delay after a broadcast in microseconds. The turnaround delay of the MODBUS serial line 
+	 * specification, the time a server may need to apply a broadcast, is typically 100 to 200 ms
+	 */
+	public static final int DEFAULT_TURNAROUND_DELAY = 100000;
+
 	TiRS485 rs485;
 	
 	protected final int timeout;
 	protected final int pause;
 	protected final byte[] buffer = new byte[MAX_PDU_SIZE + 3]; // ADU: [ID(1), PDU(n), CRC(2)]
 	protected int expectedBytes; // for logging
+	protected final RtuFrameDecoder decoder = new RtuFrameDecoder(buffer);
+	protected FrameTrace trace; // null if disabled
+	protected FrameCapture capture; // null if disabled
+	protected ResponseTimeEstimator estimator; // null for fixed timeout
+	protected int turnaroundDelay = DEFAULT_TURNAROUND_DELAY; // after a broadcast in microseconds
+	protected BusMetrics metrics; // null if disabled
+	protected long sendNanos; // start of the last request, for metrics
+	protected int sentBytes;
+	protected boolean crcError;
 
 	/**
 	 * Initialize with UART and timeout 
 	 * @param uart
-	 * @param timeout	timeout for receiving data from uart
+	 * @param timeout	time to wait for a response in ms, the transmission time of the expected frame is added
 	 * @param pause		pause after sending data
 	 */
 	public RtuTransportUART(TiRS485 rs485, int timeout, int pause) {
@@ -40,6 +56,77 @@ public class RtuTransportUART  implements ModbusClientTransport {
 		this.rs485.open(baudRate, dataBitNum, stopBitNum, parity);
 	}
 	
+	/**
+	 * Set wire trace, null to disable tracing 
+	 * @param trace
+	 */
+	public void setTrace(FrameTrace trace) {
+		this.trace = trace;
+	}
+
+	public FrameTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Set binary capture of all frames, null to disable
+	 * @param capture
+	 */
+	public void setCapture(FrameCapture capture) {
+		this.capture = capture;
+	}
+
+	public FrameCapture getCapture() {
+		return capture;
+	}
+
+	/**
+	 * Derive the timeout of each request from measured response times, 
+	 * the configured timeout is the upper limit. null for fixed timeout. 
+	 * The transmission time of the expected frame is added in both cases
+	 * @param estimator
+	 */
+	public void setAdaptiveTimeout(ResponseTimeEstimator estimator) {
+		this.estimator = estimator;
+	}
+
+	public ResponseTimeEstimator getAdaptiveTimeout() {
+		return estimator;
+	}
+
+	/**
+	 * Set bus statistics, null to disable
+	 * @param metrics
+	 */
+	public void setMetrics(BusMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public BusMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the delay after a broadcast which gives the servers time to process it. 
+	 * It is never shorter than the inter-frame delay of 3.5 characters
+	 * @param micros	delay in microseconds, -1 for {@link #DEFAULT_TURNAROUND_DELAY}
+	 */
+	public void setTurnaroundDelay(int micros) {
+		if (micros < -1)
+			throw new IllegalArgumentException();
+		this.turnaroundDelay = (micros < 0) ? DEFAULT_TURNAROUND_DELAY : micros;
+	}
+
+	/**
+	 * Delay after a broadcast
+	 * @return microseconds
+	 */
+	public int getTurnaroundDelay() {
+		// 3.5 characters, fixed 1750us above 19200 baud
+		int gap = Math.max(rs485.getCharTime() * 7 / 2, 1750);
+		return Math.max(turnaroundDelay, gap);
+	}
+
 	/**
 	 * Close 
 	 */
@@ -61,6 +148,7 @@ public class RtuTransportUART  implements ModbusClientTransport {
 	public void sendRequest(ModbusClient modbusClient) throws Exception {
 
 		this.rs485.clearInput();
+		sendNanos = System.nanoTime();
 		
 		buffer[0] = modbusClient.getServerId();
 		modbusClient.readFromPdu(0, modbusClient.getPduSize(), buffer, 1);
@@ -69,97 +157,122 @@ public class RtuTransportUART  implements ModbusClientTransport {
 		buffer[size] = ModbusPdu.lowByte(crc);
 		buffer[size + 1] = ModbusPdu.highByte(crc);
 		size = size + 2;
+		sentBytes = size;
 
-		Logger.info("Modbus", "Write: " + ModbusPdu.toHex(buffer, 0, size));
+		if (trace != null)
+			trace.record(FrameTrace.TX, buffer, 0, size);
+		if (capture != null)
+			capture.record(FrameTrace.TX, buffer, 0, size);
 
 		this.rs485.write(buffer, 0, size);		
 		if (pause > 0)
-		{
-			Logger.info("Modbus","Pause " + pause);
 			Thread.sleep(pause);
-		}
 
 	}
 
 
 	/**
-	 * Waiting for response 
+	 * Waiting for response, bytes are decoded in whatever chunks they arrive
 	 */
 	@Override
 	public int waitResponse(ModbusClient modbusClient) throws Exception {
+		BusMetrics m = metrics;
+		if (m == null)
+			return receive(modbusClient);
+
+		crcError = false;
+		int function = modbusClient.getFunction();
+		int result = receive(modbusClient);
+		int received = (modbusClient.getServerId() == BROADCAST_ID) ? 0 : decoder.getLength();
+		m.record(modbusClient.getServerId(), function, result, crcError, (System.nanoTime() - sendNanos) / 1000,
+				sentBytes, received, rs485.getCharTime());
+		return result;
+	}
+
+	private int receive(ModbusClient modbusClient) throws Exception {
+
+		if (modbusClient.getServerId() == BROADCAST_ID) {
+			// servers never answer a broadcast, only give them time to process it
+			long nanos = getTurnaroundDelay() * 1000L;
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+			return ModbusClient.RESULT_OK;
+		}
 
 		expectedBytes = modbusClient.getExpectedPduSize() + 3; // id(1), PDU(n), crc(2)
+		decoder.reset(modbusClient.getServerId(), modbusClient.getFunction(), modbusClient.getExpectedPduSize());
+
+		// the deadline covers the whole frame, so it includes the time to transmit it
+		int frameTime = (expectedBytes * rs485.getCharTime() + 999) / 1000;
+		int wait = this.timeout + frameTime;
+		ResponseTimeEstimator rte = this.estimator;
+		if (rte != null)
+			wait = Math.min(wait, rte.getTimeout(modbusClient.getServerId(), modbusClient.getFunction(), this.timeout) + frameTime);
+		long startNanos = System.nanoTime();
+		long deadline = System.currentTimeMillis() + wait;
+		int status = RtuFrameDecoder.NEED_MORE;
+		while (status == RtuFrameDecoder.NEED_MORE) {
+			long remaining = deadline - System.currentTimeMillis();
+			int res = (remaining > 0) ? this.rs485.read(buffer, decoder.getLength(), decoder.remaining(), (int) remaining) : 0;
+			if (res <= 0) {
+				if (decoder.getLength() > 0)
+					logData("incomplete", 0, decoder.getLength());
+				if (rte != null)
+					rte.onTimeout(modbusClient.getServerId(), modbusClient.getFunction());
+				return ModbusClient.RESULT_TIMEOUT;
+			}
+			status = decoder.update(res);
+		}
+
+		if ((rte != null) && (status == RtuFrameDecoder.COMPLETE)) {
+			long latency = (System.nanoTime() - startNanos) / 1000 - (long) decoder.getLength() * rs485.getCharTime();
+			rte.addSample(modbusClient.getServerId(), modbusClient.getFunction(), latency);
+		}
 
-		// read id
-		if (!this.rs485.readToBuffer(this.buffer, 0, 1, this.timeout))
-			return ModbusClient.RESULT_TIMEOUT;
-		if (buffer[0] != modbusClient.getServerId()) {
+		switch (status) {
+		case RtuFrameDecoder.BAD_ID:
 			logData("bad id", 0, 1);
 			Logger.warning("Modbus",
 					"waitResponse(): Invalid id: " + buffer[0] + "expected:" + modbusClient.getServerId());
 			return ModbusClient.RESULT_BAD_RESPONSE;
-		}
-
-		// read function (bit7 means exception)
-		if (!this.rs485.readToBuffer(this.buffer, 1, 1, this.timeout))
-			return ModbusClient.RESULT_TIMEOUT;
-		if ((buffer[1] & 0x7f) != modbusClient.getFunction()) {
+		case RtuFrameDecoder.BAD_FUNCTION:
 			logData("bad function", 0, 2);
 			Logger.warning("Modbus",
 					"waitResponse(): Invalid function: " + buffer[1] + "expected: " + modbusClient.getFunction());
 			return ModbusClient.RESULT_BAD_RESPONSE;
+		case RtuFrameDecoder.BAD_LENGTH:
+			logData("bad length", 0, decoder.getLength());
+			Logger.warning("Modbus",
+					"waitResponse(): Invalid length: " + decoder.getFrameLength() + " expected: " + expectedBytes);
+			return ModbusClient.RESULT_BAD_RESPONSE;
+		case RtuFrameDecoder.BAD_CRC:
+			logData(decoder.isException() ? "bad crc (exception)" : "bad crc", 0, decoder.getLength());
+			Logger.warning("Modbus", "CRC error in response");
+			crcError = true;
+			return ModbusClient.RESULT_BAD_RESPONSE;
+		default:
+			break;
 		}
 
-		if ((buffer[1] & 0x80) != 0) {
-			// EXCEPTION
-			expectedBytes = 5; // id(1), function(1), exception code(1), crc(2)
-			if (!this.rs485.readToBuffer(this.buffer, 2, 3, this.timeout)) // exception code + CRC
-				return ModbusClient.RESULT_TIMEOUT;
-			if (crcValid(3)) {
-				logData("exception", 0, expectedBytes);
-				modbusClient.setPduSize(2); // function + exception code
-				modbusClient.writeToPdu(buffer, 1, modbusClient.getPduSize(), 0);
-				return ModbusClient.RESULT_EXCEPTION;
-			} else {
-				logData("bad crc (exception)", 0, expectedBytes);
-				return ModbusClient.RESULT_BAD_RESPONSE;
-			}
-		} else {
-			// NORMAL RESPONSE
-			if (!this.rs485.readToBuffer(this.buffer, 2, modbusClient.getExpectedPduSize() + 1, this.timeout)) // data + CRC (without function)
-				return ModbusClient.RESULT_TIMEOUT;
-			// CRC check of (serverId + PDU)
-			if (crcValid(1 + modbusClient.getExpectedPduSize())) {
-				logData("normal", 0, expectedBytes);
-				modbusClient.setPduSize(modbusClient.getExpectedPduSize());
-				modbusClient.writeToPdu(buffer, 1, modbusClient.getPduSize(), 0);
-				return ModbusClient.RESULT_OK;
-			} else {
-				logData("bad crc", 0, expectedBytes);
-				return ModbusClient.RESULT_BAD_RESPONSE;
-			}
+		if (decoder.isException()) {
+			expectedBytes = decoder.getLength();
+			logData("exception", 0, expectedBytes);
+			modbusClient.setPduSize(2); // function + exception code
+			modbusClient.writeToPdu(buffer, 1, modbusClient.getPduSize(), 0);
+			return ModbusClient.RESULT_EXCEPTION;
 		}
+
+		logData("normal", 0, expectedBytes);
+		modbusClient.setPduSize(modbusClient.getExpectedPduSize());
+		modbusClient.writeToPdu(buffer, 1, modbusClient.getPduSize(), 0);
+		return ModbusClient.RESULT_OK;
 	}
 
 	protected void logData(String kind, int start, int length) {
-		Logger.info("Modbus", "Read: " + ModbusPdu.toHex(buffer, start, length));
+		if (trace != null)
+			trace.record(FrameTrace.RX, buffer, start, length);
+		// all bytes received, so replay stops decoding where this one did
+		if (capture != null)
+			capture.record(FrameTrace.RX, buffer, 0, decoder.getLength());
 	}
 
-	/**
-	 * CRC validation
-	 * @param size
-	 * @return
-	 */
-	protected boolean crcValid(int size) {
-		int crc = ModbusPdu.calcCRC16(buffer, 0, size);
-		int crc2 = ModbusPdu.bytesToInt16(buffer[size], buffer[size + 1], true);
-		if (crc == crc2)
-			return true;
-		else {
-			Logger.warning("Modbus",
-					"CRC error calc:" + Integer.toHexString(crc) + " in response: " + Integer.toHexString(crc2));
-			return false;
-		}
-	}
-	
 }
@@ -0,0 +1,118 @@
+package tijos.framework.component.modbus.rtu;
+
+/**
+ * Per-server health tracking for {@link ModbusClient}. 
+ * After a number of consecutive timeouts a server is taken offline: requests to it fail at once 
+ * with RESULT_OFFLINE, and it is probed with a minimal request at exponentially growing intervals 
+ * until it answers again.
+ * @author TiJOS
+ *
+ */
+public class ServerHealthMonitor {
+
+	private static final int SERVERS = 248; // id 0..247
+
+	private final byte[] timeouts = new byte[SERVERS]; // consecutive timeouts
+	private final boolean[] offline = new boolean[SERVERS];
+	private final int[] backoff = new int[SERVERS]; // ms
+	private final long[] nextProbe = new long[SERVERS];
+
+	private final int threshold;
+	private final int minBackoff;
+	private final int maxBackoff;
+
+	/**
+	 * Initialize monitor
+	 * @param threshold		consecutive timeouts to take a server offline
+	 * @param minBackoff	first probe interval in ms
+	 * @param maxBackoff	longest probe interval in ms
+	 */
+	public ServerHealthMonitor(int threshold, int minBackoff, int maxBackoff) {
+		if ((threshold < 1) || (threshold > 127) || (minBackoff < 1) || (maxBackoff < minBackoff))
+			throw new IllegalArgumentException();
+		this.threshold = threshold;
+		this.minBackoff = minBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Server is offline
+	 * @param serverId
+	 * @return
+	 */
+	public synchronized boolean isOffline(int serverId) {
+		int id = serverId & 0xFF;
+		return (id < SERVERS) && offline[id];
+	}
+
+	/**
+	 * Offline server may be probed now
+	 * @param serverId
+	 * @param now current time in ms
+	 * @return
+	 */
+	public synchronized boolean isProbeDue(int serverId, long now) {
+		int id = serverId & 0xFF;
+		return (id < SERVERS) && offline[id] && (now >= nextProbe[id]);
+	}
+
+	/**
+	 * Number of servers offline
+	 * @return
+	 */
+	public synchronized int getOfflineCount() {
+		int count = 0;
+		for (int i = 0; i < SERVERS; i++) {
+			if (offline[i])
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Put a server back online, e.g. after it has been replaced
+	 * @param serverId
+	 */
+	public synchronized void reset(int serverId) {
+		int id = serverId & 0xFF;
+		if (id >= SERVERS)
+			return;
+		offline[id] = false;
+		timeouts[id] = 0;
+	}
+
+	/**
+	 * Update with the result of a request or probe
+	 * @param serverId
+	 * @param result	RESULT_*
+	 * @param now	current time in ms
+	 */
+	public synchronized void onResult(int serverId, int result, long now) {
+		int id = serverId & 0xFF;
+		if (id >= SERVERS)
+			return;
+		// any valid answer, even an exception, proves the device is there
+		if ((result == ModbusClient.RESULT_OK) || (result == ModbusClient.RESULT_EXCEPTION)) {
+			timeouts[id] = 0;
+			offline[id] = false;
+			return;
+		}
+
+		if (offline[id]) {
+			// probe failed, by timeout or by an invalid response
+			backoff[id] = Math.min(maxBackoff, backoff[id] * 2);
+			nextProbe[id] = now + backoff[id];
+			return;
+		}
+		if (result != ModbusClient.RESULT_TIMEOUT)
+			return;
+
+		if (timeouts[id] < threshold)
+			timeouts[id]++;
+		if (timeouts[id] >= threshold) {
+			offline[id] = true;
+			backoff[id] = minBackoff;
+			nextProbe[id] = now + minBackoff;
+		}
+	}
+}
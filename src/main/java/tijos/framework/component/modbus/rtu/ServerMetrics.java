@@ -0,0 +1,247 @@
+package tijos.framework.component.modbus.rtu;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+/**
+ * Request statistics of one server per function code, kept by {@link BusMetrics}. 
+ * Get a copy with {@link BusMetrics#getServerMetrics(int, ServerMetrics)}, 
+ * the same object may be reused for every copy.
+ * @author TiJOS
+ *
+ */
+public class ServerMetrics {
+
+	/**
+	 * Upper bounds of the latency histogram buckets in microseconds, the last bucket is unbounded
+	 */
+	private static final int[] BUCKET_BOUNDS = { 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+			1000000 };
+	public static final int BUCKETS = 11;
+
+	/**
+	 * Function codes with their own statistics, the others are counted together
+	 */
+	private static final int FUNCTIONS = 11;
+
+	private int serverId = -1;
+	final long[] requests = new long[FUNCTIONS];
+	final long[] timeouts = new long[FUNCTIONS];
+	final long[] badResponses = new long[FUNCTIONS];
+	final long[] exceptions = new long[FUNCTIONS];
+	final long[] crcErrors = new long[FUNCTIONS];
+	final long[] latencySum = new long[FUNCTIONS]; // answered requests, us
+	final long[] latencyMax = new long[FUNCTIONS];
+	final long[] histogram = new long[FUNCTIONS * BUCKETS];
+	long busyTime; // us on the wire
+
+	public ServerMetrics() {
+	}
+
+	ServerMetrics(int serverId) {
+		this.serverId = serverId;
+	}
+
+	/**
+	 * Index of a function code
+	 * @param function
+	 * @return 0..FUNCTIONS-1
+	 */
+	static int index(int function) {
+		switch (function) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+		case FN_WRITE_SINGLE_COIL:
+		case FN_WRITE_SINGLE_REGISTER:
+			return function - 1;
+		case FN_WRITE_MULTIPLE_COILS:
+			return 6;
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			return 7;
+		case FN_MASK_WRITE_REGISTER:
+			return 8;
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			return 9;
+		default:
+			return 10;
+		}
+	}
+
+	/**
+	 * Upper bound of a latency histogram bucket
+	 * @param bucket	0..BUCKETS-1
+	 * @return microseconds, Long.MAX_VALUE for the last bucket
+	 */
+	public static long getBucketBound(int bucket) {
+		if ((bucket < 0) || (bucket >= BUCKETS))
+			throw new IllegalArgumentException();
+		return (bucket < BUCKET_BOUNDS.length) ? BUCKET_BOUNDS[bucket] : Long.MAX_VALUE;
+	}
+
+	static int bucket(long latency) {
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			if (latency <= BUCKET_BOUNDS[i])
+				return i;
+		}
+		return BUCKETS - 1;
+	}
+
+	void record(int function, int result, boolean crcError, long latency, long busy) {
+		int f = index(function);
+		requests[f]++;
+		busyTime += busy;
+		if (crcError)
+			crcErrors[f]++;
+		switch (result) {
+		case ModbusClient.RESULT_TIMEOUT:
+			timeouts[f]++;
+			return;
+		case ModbusClient.RESULT_BAD_RESPONSE:
+			badResponses[f]++;
+			return;
+		case ModbusClient.RESULT_EXCEPTION:
+			exceptions[f]++;
+			break;
+		default:
+			break;
+		}
+		// answered
+		latencySum[f] += latency;
+		if (latency > latencyMax[f])
+			latencyMax[f] = latency;
+		histogram[f * BUCKETS + bucket(latency)]++;
+	}
+
+	void copyTo(ServerMetrics dest) {
+		dest.serverId = serverId;
+		System.arraycopy(requests, 0, dest.requests, 0, FUNCTIONS);
+		System.arraycopy(timeouts, 0, dest.timeouts, 0, FUNCTIONS);
+		System.arraycopy(badResponses, 0, dest.badResponses, 0, FUNCTIONS);
+		System.arraycopy(exceptions, 0, dest.exceptions, 0, FUNCTIONS);
+		System.arraycopy(crcErrors, 0, dest.crcErrors, 0, FUNCTIONS);
+		System.arraycopy(latencySum, 0, dest.latencySum, 0, FUNCTIONS);
+		System.arraycopy(latencyMax, 0, dest.latencyMax, 0, FUNCTIONS);
+		System.arraycopy(histogram, 0, dest.histogram, 0, histogram.length);
+		dest.busyTime = busyTime;
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	/**
+	 * Number of requests sent
+	 * @param function	function code, -1 for all
+	 * @return
+	 */
+	public long getRequests(int function) {
+		return sum(requests, function);
+	}
+
+	public long getTimeouts(int function) {
+		return sum(timeouts, function);
+	}
+
+	/**
+	 * Number of invalid responses, including CRC errors
+	 * @param function	function code, -1 for all
+	 * @return
+	 */
+	public long getBadResponses(int function) {
+		return sum(badResponses, function);
+	}
+
+	public long getExceptions(int function) {
+		return sum(exceptions, function);
+	}
+
+	public long getCrcErrors(int function) {
+		return sum(crcErrors, function);
+	}
+
+	/**
+	 * Number of answered requests, normal responses and exceptions
+	 * @param function	function code, -1 for all
+	 * @return
+	 */
+	public long getAnswered(int function) {
+		return getRequests(function) - getTimeouts(function) - getBadResponses(function);
+	}
+
+	/**
+	 * Mean time from sending the request to the end of the response
+	 * @param function	function code, -1 for all
+	 * @return microseconds, 0 if nothing has been answered
+	 */
+	public long getMeanLatency(int function) {
+		long n = getAnswered(function);
+		return (n == 0) ? 0 : sum(latencySum, function) / n;
+	}
+
+	/**
+	 * Longest time from sending the request to the end of the response
+	 * @param function	function code, -1 for all
+	 * @return microseconds
+	 */
+	public long getMaxLatency(int function) {
+		if (function >= 0)
+			return latencyMax[index(function)];
+		long max = 0;
+		for (int i = 0; i < FUNCTIONS; i++)
+			max = Math.max(max, latencyMax[i]);
+		return max;
+	}
+
+	/**
+	 * Number of answered requests in a latency bucket
+	 * @param function	function code, -1 for all
+	 * @param bucket	0..BUCKETS-1, see getBucketBound
+	 * @return
+	 */
+	public long getHistogram(int function, int bucket) {
+		if (function >= 0)
+			return histogram[index(function) * BUCKETS + bucket];
+		long n = 0;
+		for (int i = 0; i < FUNCTIONS; i++)
+			n += histogram[i * BUCKETS + bucket];
+		return n;
+	}
+
+	/**
+	 * Latency not exceeded by a share of the answered requests, as bucket upper bound
+	 * @param function	function code, -1 for all
+	 * @param percent	0..100, e.g. 99
+	 * @return microseconds, Long.MAX_VALUE if in the unbounded bucket, 0 if nothing has been answered
+	 */
+	public long getPercentile(int function, int percent) {
+		long total = getAnswered(function);
+		if (total == 0)
+			return 0;
+		long limit = (total * percent + 99) / 100;
+		long n = 0;
+		for (int b = 0; b < BUCKETS - 1; b++) {
+			n += getHistogram(function, b);
+			if (n >= limit)
+				return BUCKET_BOUNDS[b];
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Time the requests and responses of the server occupied the line
+	 * @return microseconds
+	 */
+	public long getBusyTime() {
+		return busyTime;
+	}
+
+	private static long sum(long[] values, int function) {
+		if (function >= 0)
+			return values[index(function)];
+		long n = 0;
+		for (int i = 0; i < FUNCTIONS; i++)
+			n += values[i];
+		return n;
+	}
+}
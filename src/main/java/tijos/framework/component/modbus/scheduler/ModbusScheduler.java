@@ -0,0 +1,247 @@
+package tijos.framework.component.modbus.scheduler;
+
+import java.util.LinkedList;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.util.logging.Logger;
+
+/**
+ * Bus scheduler owning a {@link ModbusClient}. 
+ * Periodic poll jobs are executed earliest deadline first, one frame at a time. 
+ * Submitted requests (e.g. setpoint writes) take precedence at the next frame boundary, 
+ * so they wait one frame at most even during a long scan.
+ * @author TiJOS
+ *
+ */
+public class ModbusScheduler implements Runnable {
+
+	private final ModbusClient client;
+	private final Object lock = new Object();
+	private final LinkedList<ModbusRequest> requests = new LinkedList<ModbusRequest>();
+	private PollJob[] jobs = new PollJob[0];
+	private SchedulerListener listener;
+
+	private volatile boolean running;
+	private Thread thread;
+	private int overruns;
+
+	/**
+	 * Initialize with client, the scheduler must be the only user of the client 
+	 * @param client
+	 */
+	public ModbusScheduler(ModbusClient client) {
+		this.client = client;
+	}
+
+	public void setListener(SchedulerListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Add poll job, first cycle is due at once
+	 * @param job
+	 */
+	public void addJob(PollJob job) {
+		synchronized (lock) {
+			PollJob[] list = new PollJob[jobs.length + 1];
+			System.arraycopy(jobs, 0, list, 0, jobs.length);
+			list[jobs.length] = job;
+			job.nextDue = System.currentTimeMillis();
+			job.frameOffset = 0;
+			job.active = false;
+			jobs = list;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Remove poll job
+	 * @param job
+	 */
+	public void removeJob(PollJob job) {
+		synchronized (lock) {
+			for (int i = 0; i < jobs.length; i++) {
+				if (jobs[i] == job) {
+					PollJob[] list = new PollJob[jobs.length - 1];
+					System.arraycopy(jobs, 0, list, 0, i);
+					System.arraycopy(jobs, i + 1, list, i, list.length - i);
+					jobs = list;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue a request for execution before any further poll frame, may be called from any thread
+	 * @param request
+	 */
+	public void submit(ModbusRequest request) {
+		synchronized (lock) {
+			requests.addLast(request);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Total number of overruns of all jobs
+	 * @return
+	 */
+	public int getOverruns() {
+		synchronized (lock) {
+			return overruns;
+		}
+	}
+
+	/**
+	 * Start bus thread
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (running)
+				return;
+			running = true;
+			thread = new Thread(this, "ModbusScheduler");
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop bus thread after the frame in progress
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		Thread t;
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+			t = thread;
+			thread = null;
+		}
+		if ((t != null) && (t != Thread.currentThread()))
+			t.join();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				long wait = runOnce();
+				if (wait > 0) {
+					synchronized (lock) {
+						if (running && requests.isEmpty())
+							lock.wait(wait);
+					}
+				}
+			} catch (InterruptedException ie) {
+				break;
+			} catch (Exception ex) {
+				Logger.warning("Modbus", "Scheduler: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Execute at most one frame, for applications driving the bus from their own loop 
+	 * @return 0 if there may be more work at once, otherwise ms until the next poll is due
+	 * @throws Exception
+	 */
+	public long runOnce() throws Exception {
+		ModbusRequest request;
+		PollJob[] list;
+		synchronized (lock) {
+			request = requests.isEmpty() ? null : requests.removeFirst();
+			list = jobs;
+		}
+
+		if (request != null) {
+			int result;
+			try {
+				request.initRequest(client);
+				result = client.execRequest();
+			} catch (Exception ex) {
+				// dropped, a write is not repeated behind the back of the application
+				Logger.warning("Modbus", "Scheduler request: " + ex.getMessage());
+				if (listener != null)
+					listener.onError(null, request, ex);
+				return 0;
+			}
+			if (listener != null)
+				listener.onRequest(request, client, result);
+			return 0;
+		}
+
+		long now = System.currentTimeMillis();
+		PollJob job = null;
+		long earliestDeadline = Long.MAX_VALUE;
+		long nextDue = Long.MAX_VALUE;
+		for (int i = 0; i < list.length; i++) {
+			PollJob j = list[i];
+			if (!j.active && (j.nextDue <= now)) {
+				j.active = true;
+				j.cycleDue = j.nextDue;
+				j.frameOffset = 0;
+			}
+			if (j.active) {
+				long deadline = j.cycleDue + j.getDeadline();
+				if (deadline < earliestDeadline) {
+					earliestDeadline = deadline;
+					job = j;
+				}
+			} else if (j.nextDue < nextDue)
+				nextDue = j.nextDue;
+		}
+
+		if (job == null)
+			return (nextDue == Long.MAX_VALUE) ? 1000 : Math.max(1, nextDue - now);
+
+		int frameCount;
+		int result;
+		try {
+			frameCount = job.initFrame(client);
+			result = client.execRequest();
+		} catch (Exception ex) {
+			// end the cycle, the job is retried at its next period instead of at once
+			job.frameFailed();
+			completeCycle(job, System.currentTimeMillis());
+			Logger.warning("Modbus", "Scheduler frame: " + ex.getMessage());
+			if (listener != null)
+				listener.onError(job, null, ex);
+			return 0;
+		}
+		job.frameOffset += frameCount;
+		if (listener != null)
+			listener.onPoll(job, client, result);
+
+		if (job.frameOffset >= job.getCount())
+			completeCycle(job, System.currentTimeMillis());
+		return 0;
+	}
+
+	private void completeCycle(PollJob job, long now) {
+		job.active = false;
+		job.frameOffset = 0;
+
+		long lateness = now - (job.cycleDue + job.getDeadline());
+		long nextDue = job.cycleDue + job.getPeriod();
+		if (nextDue + job.getPeriod() <= now) {
+			// whole cycles were missed, skip them and start the latest one at once
+			long skipped = (now - nextDue) / job.getPeriod();
+			if (lateness <= 0)
+				lateness = now - nextDue;
+			nextDue += skipped * job.getPeriod();
+		}
+		job.nextDue = nextDue;
+
+		boolean overrun = (lateness > 0);
+		job.cycleDone(now - job.cycleDue, overrun);
+		if (overrun) {
+			synchronized (lock) {
+				overruns++;
+			}
+			if (listener != null)
+				listener.onOverrun(job, lateness);
+		}
+	}
+}
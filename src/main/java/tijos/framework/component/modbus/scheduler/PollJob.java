@@ -0,0 +1,151 @@
+package tijos.framework.component.modbus.scheduler;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+
+/**
+ * Periodic read of a register or coil block, executed by {@link ModbusScheduler}. 
+ * Blocks larger than one MODBUS request are read in several frames.
+ * @author TiJOS
+ *
+ */
+public class PollJob {
+
+	private final int serverId;
+	private final int function;
+	private final int address;
+	private final int count;
+	private final int period;
+	private final int deadline;
+
+	// scheduler state, only touched by the bus thread
+	long cycleDue; // due time of the cycle in progress
+	long nextDue;
+	int frameOffset; // > 0 while the cycle is in progress
+	boolean active;
+
+	private int overruns;
+	private int failedFrames;
+	private long lastCycleTime;
+
+	/**
+	 * Initialize poll job
+	 * @param serverId	server id
+	 * @param function	FN_READ_COILS, FN_READ_DISCRETE_INPUTS, FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	start address
+	 * @param count		number of registers or coils, may exceed the limit of one request 
+	 * @param period	poll period in ms
+	 * @param deadline	time in ms after the cycle is due by which it must be complete
+	 */
+	public PollJob(int serverId, int function, int address, int count, int period, int deadline) {
+		if ((function < FN_READ_COILS) || (function > FN_READ_INPUT_REGISTERS))
+			throw new IllegalArgumentException("Invalid function: " + function);
+		if ((count < 1) || (address < 0) || (address + count > 0x10000))
+			throw new IllegalArgumentException("Invalid range: " + address + " " + count);
+		if ((period <= 0) || (deadline <= 0))
+			throw new IllegalArgumentException();
+		this.serverId = serverId;
+		this.function = function;
+		this.address = address;
+		this.count = count;
+		this.period = period;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Initialize poll job with deadline equal to period
+	 * @param serverId
+	 * @param function
+	 * @param address
+	 * @param count
+	 * @param period
+	 */
+	public PollJob(int serverId, int function, int address, int count, int period) {
+		this(serverId, function, address, count, period, period);
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	public int getFunction() {
+		return function;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getPeriod() {
+		return period;
+	}
+
+	public int getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Number of cycles which missed the deadline or were skipped
+	 * @return
+	 */
+	public synchronized int getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * Number of frames which failed with an exception
+	 * @return
+	 */
+	public synchronized int getFailedFrames() {
+		return failedFrames;
+	}
+
+	synchronized void frameFailed() {
+		failedFrames++;
+	}
+
+	/**
+	 * Time from due to completion of the last cycle in ms
+	 * @return
+	 */
+	public synchronized long getLastCycleTime() {
+		return lastCycleTime;
+	}
+
+	synchronized void cycleDone(long cycleTime, boolean overrun) {
+		lastCycleTime = cycleTime;
+		if (overrun)
+			overruns++;
+	}
+
+	/**
+	 * Initialize the request for the next frame of the cycle
+	 * @param client
+	 * @return number of registers or coils in the frame
+	 */
+	int initFrame(ModbusClient client) {
+		boolean bits = (function == FN_READ_COILS) || (function == FN_READ_DISCRETE_INPUTS);
+		int frameCount = Math.min(count - frameOffset, bits ? MAX_READ_COILS : MAX_READ_REGS);
+		int frameAddress = address + frameOffset;
+		switch (function) {
+		case FN_READ_COILS:
+			client.InitReadCoilsRequest(serverId, frameAddress, frameCount);
+			break;
+		case FN_READ_DISCRETE_INPUTS:
+			client.InitReadDInputsRequest(serverId, frameAddress, frameCount);
+			break;
+		case FN_READ_HOLDING_REGISTERS:
+			client.InitReadHoldingsRequest(serverId, frameAddress, frameCount);
+			break;
+		default:
+			client.InitReadAInputsRequest(serverId, frameAddress, frameCount);
+			break;
+		}
+		return frameCount;
+	}
+}
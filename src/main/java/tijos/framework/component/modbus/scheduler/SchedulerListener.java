@@ -0,0 +1,45 @@
+package tijos.framework.component.modbus.scheduler;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+
+/**
+ * Results of {@link ModbusScheduler}, called on the bus thread. 
+ * The response is only valid in the client during the call.
+ * @author TiJOS
+ *
+ */
+public interface SchedulerListener {
+
+	/**
+	 * One frame of a poll job has been executed
+	 * @param job
+	 * @param client	client holding the response, use getResponseAddress() for the frame start
+	 * @param result	RESULT_*
+	 */
+	public void onPoll(PollJob job, ModbusClient client, int result);
+
+	/**
+	 * A submitted request has been executed
+	 * @param request
+	 * @param client	client holding the response
+	 * @param result	RESULT_*
+	 */
+	public void onRequest(ModbusRequest request, ModbusClient client, int result);
+
+	/**
+	 * A frame or a submitted request failed with an exception, e.g. of the serial line. 
+	 * A failed request is dropped, the rest of a failed poll cycle is skipped until the next period
+	 * @param job		job of the frame, null for a submitted request
+	 * @param request	submitted request, null for a frame
+	 * @param error
+	 */
+	public void onError(PollJob job, ModbusRequest request, Exception error);
+
+	/**
+	 * A poll cycle did not complete by its deadline, or cycles had to be skipped
+	 * @param job
+	 * @param lateness	time past the deadline in ms
+	 */
+	public void onOverrun(PollJob job, long lateness);
+}
@@ -0,0 +1,344 @@
+package tijos.framework.component.modbus.server;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+/**
+ * MODBUS RTU server (slave) request processor. Serves FC01-06, 15, 16, 22 and 23 from 
+ * a {@link ServerData}, writing the response straight into the caller's buffer, so no 
+ * object is allocated per request. Use {@link RtuServerUART} to serve it on a RS485 line.
+ * @author TiJOS
+ *
+ */
+public class ModbusServer {
+
+	private final int serverId;
+	private final ServerData data;
+	private ServerCallback callback; // null if none
+	private long requestCount;
+
+	/**
+	 * Initialize server
+	 * @param serverId	server id 1..247
+	 * @param data		tables to serve
+	 */
+	public ModbusServer(int serverId, ServerData data) {
+		if ((serverId < 1) || (serverId > 247))
+			throw new IllegalArgumentException("Invalid server id: " + serverId);
+		this.serverId = serverId;
+		this.data = data;
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	public ServerData getData() {
+		return data;
+	}
+
+	/**
+	 * Set hooks for computed registers and write notification, null to disable
+	 * @param callback
+	 */
+	public void setCallback(ServerCallback callback) {
+		this.callback = callback;
+	}
+
+	/**
+	 * Number of valid requests processed
+	 * @return
+	 */
+	public long getRequestCount() {
+		synchronized (data) {
+			return requestCount;
+		}
+	}
+
+	/**
+	 * Process request ADU and build response ADU 
+	 * @param req		request [ID(1), PDU(n), CRC(2)]
+	 * @param length	request length
+	 * @param resp		response buffer, 256 bytes at least
+	 * @return response length including CRC, 0 if there is no response: request for 
+	 * another server, broadcast or CRC error
+	 */
+	public int process(byte[] req, int length, byte[] resp) {
+		if (length < 4)
+			return 0;
+		int id = req[0] & 0xFF;
+		if ((id != serverId) && (id != BROADCAST_ID))
+			return 0;
+		if (!ModbusPdu.checkCRC16(req, 0, length))
+			return 0;
+
+		resp[0] = req[0];
+		resp[1] = req[1];
+		int function = req[1] & 0xFF;
+		int size;
+		synchronized (data) {
+			requestCount++;
+			size = dispatch(function, req, length, resp);
+		}
+
+		if (size < 0) {
+			resp[1] = (byte) (function | 0x80);
+			resp[2] = (byte) -size;
+			size = 3;
+		}
+
+		// broadcast is executed without response
+		if (id == BROADCAST_ID)
+			return 0;
+
+		int crc = ModbusPdu.calcCRC16(resp, 0, size);
+		resp[size] = ModbusPdu.lowByte(crc);
+		resp[size + 1] = ModbusPdu.highByte(crc);
+		return size + 2;
+	}
+
+	/**
+	 * Execute request
+	 * @return response length without CRC, or -EX_* for an exception response
+	 */
+	private int dispatch(int function, byte[] req, int length, byte[] resp) {
+		switch (function) {
+		case FN_READ_COILS:
+			return readBits(FN_READ_COILS, data.coils, data.coilCount, req, length, resp);
+		case FN_READ_DISCRETE_INPUTS:
+			return readBits(FN_READ_DISCRETE_INPUTS, data.discreteInputs, data.discreteInputCount, req, length, resp);
+		case FN_READ_HOLDING_REGISTERS:
+			return readRegisters(FN_READ_HOLDING_REGISTERS, data.holdingRegisters, req, length, resp);
+		case FN_READ_INPUT_REGISTERS:
+			return readRegisters(FN_READ_INPUT_REGISTERS, data.inputRegisters, req, length, resp);
+		case FN_WRITE_SINGLE_COIL:
+			return writeCoil(req, length, resp);
+		case FN_WRITE_SINGLE_REGISTER:
+			return writeRegister(req, length, resp);
+		case FN_WRITE_MULTIPLE_COILS:
+			return writeCoils(req, length, resp);
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			return writeRegisters(req, length, resp);
+		case FN_MASK_WRITE_REGISTER:
+			return maskWriteRegister(req, length, resp);
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			return readWriteRegisters(req, length, resp);
+		default:
+			return -EX_ILLEGAL_FUNCTION;
+		}
+	}
+
+	private static int readUInt16(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	private int onRead(int table, int address, int count) {
+		ServerCallback cb = callback;
+		return (cb == null) ? 0 : cb.onRead(data, table, address, count);
+	}
+
+	private void onWrite(int table, int address, int count) {
+		ServerCallback cb = callback;
+		if (cb != null)
+			cb.onWrite(data, table, address, count);
+	}
+
+	private int readBits(int table, long[] bits, int size, byte[] req, int length, byte[] resp) {
+		if (length != 8)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		int count = readUInt16(req, 4);
+		if ((count < 1) || (count > MAX_READ_COILS))
+			return -EX_ILLEGAL_VALUE;
+		if (address + count > size)
+			return -EX_ILLEGAL_ADDRESS;
+		int ex = onRead(table, address, count);
+		if (ex != 0)
+			return -ex;
+		int bytes = ModbusPdu.bytesCount(count);
+		resp[2] = (byte) bytes;
+		for (int i = 0; i < bytes; i++) {
+			// 8 bits at a time, possibly spanning two words
+			int bit = address + i * 8;
+			int w = bit >> 6;
+			int s = bit & 63;
+			long v = bits[w] >>> s;
+			if ((s > 56) && (w + 1 < bits.length))
+				v |= bits[w + 1] << (64 - s);
+			int n = count - i * 8;
+			if (n < 8)
+				v &= (1 << n) - 1;
+			resp[3 + i] = (byte) v;
+		}
+		return 3 + bytes;
+	}
+
+	private int readRegisters(int table, short[] registers, byte[] req, int length, byte[] resp) {
+		if (length != 8)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		int count = readUInt16(req, 4);
+		if ((count < 1) || (count > MAX_READ_REGS))
+			return -EX_ILLEGAL_VALUE;
+		if (address + count > registers.length)
+			return -EX_ILLEGAL_ADDRESS;
+		int ex = onRead(table, address, count);
+		if (ex != 0)
+			return -ex;
+		resp[2] = (byte) (count * 2);
+		putRegisters(registers, address, count, resp, 3);
+		return 3 + count * 2;
+	}
+
+	private static void putRegisters(short[] registers, int address, int count, byte[] resp, int offset) {
+		for (int i = 0; i < count; i++, offset += 2) {
+			short v = registers[address + i];
+			resp[offset] = (byte) (v >> 8);
+			resp[offset + 1] = (byte) v;
+		}
+	}
+
+	private int writeCoil(byte[] req, int length, byte[] resp) {
+		if (length != 8)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		int value = readUInt16(req, 4);
+		if ((value != 0xFF00) && (value != 0))
+			return -EX_ILLEGAL_VALUE;
+		if (address >= data.coilCount)
+			return -EX_ILLEGAL_ADDRESS;
+		ServerData.setBit(data.coils, address, value != 0);
+		onWrite(FN_READ_COILS, address, 1);
+		System.arraycopy(req, 2, resp, 2, 4);
+		return 6;
+	}
+
+	private int writeRegister(byte[] req, int length, byte[] resp) {
+		if (length != 8)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		if (address >= data.holdingRegisters.length)
+			return -EX_ILLEGAL_ADDRESS;
+		data.holdingRegisters[address] = (short) readUInt16(req, 4);
+		onWrite(FN_READ_HOLDING_REGISTERS, address, 1);
+		System.arraycopy(req, 2, resp, 2, 4);
+		return 6;
+	}
+
+	private int writeCoils(byte[] req, int length, byte[] resp) {
+		if (length < 10)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		int count = readUInt16(req, 4);
+		int bytes = req[6] & 0xFF;
+		if ((count < 1) || (count > MAX_WRITE_COILS) || (bytes != ModbusPdu.bytesCount(count)) || (length != 9 + bytes))
+			return -EX_ILLEGAL_VALUE;
+		if (address + count > data.coilCount)
+			return -EX_ILLEGAL_ADDRESS;
+		long[] bits = data.coils;
+		for (int i = 0; i < bytes; i++) {
+			// 8 bits at a time, possibly spanning two words
+			int n = Math.min(8, count - i * 8);
+			long mask = (1L << n) - 1;
+			long v = req[7 + i] & mask;
+			int bit = address + i * 8;
+			int w = bit >> 6;
+			int s = bit & 63;
+			bits[w] = (bits[w] & ~(mask << s)) | (v << s);
+			if (s + n > 64)
+				bits[w + 1] = (bits[w + 1] & ~(mask >>> (64 - s))) | (v >>> (64 - s));
+		}
+		onWrite(FN_READ_COILS, address, count);
+		System.arraycopy(req, 2, resp, 2, 4);
+		return 6;
+	}
+
+	private int writeRegisters(byte[] req, int length, byte[] resp) {
+		if (length < 11)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		int count = readUInt16(req, 4);
+		int bytes = req[6] & 0xFF;
+		if ((count < 1) || (count > MAX_WRITE_REGS) || (bytes != count * 2) || (length != 9 + bytes))
+			return -EX_ILLEGAL_VALUE;
+		if (address + count > data.holdingRegisters.length)
+			return -EX_ILLEGAL_ADDRESS;
+		for (int i = 0; i < count; i++)
+			data.holdingRegisters[address + i] = (short) readUInt16(req, 7 + i * 2);
+		onWrite(FN_READ_HOLDING_REGISTERS, address, count);
+		System.arraycopy(req, 2, resp, 2, 4);
+		return 6;
+	}
+
+	private int maskWriteRegister(byte[] req, int length, byte[] resp) {
+		if (length != 10)
+			return -EX_ILLEGAL_VALUE;
+		int address = readUInt16(req, 2);
+		if (address >= data.holdingRegisters.length)
+			return -EX_ILLEGAL_ADDRESS;
+		int and = readUInt16(req, 4);
+		int or = readUInt16(req, 6);
+		data.holdingRegisters[address] = (short) ((data.holdingRegisters[address] & and) | (or & ~and));
+		onWrite(FN_READ_HOLDING_REGISTERS, address, 1);
+		System.arraycopy(req, 2, resp, 2, 6);
+		return 8;
+	}
+
+	private int readWriteRegisters(byte[] req, int length, byte[] resp) {
+		if (length < 15)
+			return -EX_ILLEGAL_VALUE;
+		int readAddress = readUInt16(req, 2);
+		int readCount = readUInt16(req, 4);
+		int writeAddress = readUInt16(req, 6);
+		int writeCount = readUInt16(req, 8);
+		int bytes = req[10] & 0xFF;
+		if ((readCount < 1) || (readCount > MAX_READ_REGS) || (writeCount < 1) || (writeCount > MAX_READ_WRITE_REGS) 
+				|| (bytes != writeCount * 2) || (length != 13 + bytes))
+			return -EX_ILLEGAL_VALUE;
+		short[] registers = data.holdingRegisters;
+		if ((readAddress + readCount > registers.length) || (writeAddress + writeCount > registers.length))
+			return -EX_ILLEGAL_ADDRESS;
+		// write is performed before read
+		for (int i = 0; i < writeCount; i++)
+			registers[writeAddress + i] = (short) readUInt16(req, 11 + i * 2);
+		onWrite(FN_READ_HOLDING_REGISTERS, writeAddress, writeCount);
+		int ex = onRead(FN_READ_HOLDING_REGISTERS, readAddress, readCount);
+		if (ex != 0)
+			return -ex;
+		resp[2] = (byte) (readCount * 2);
+		putRegisters(registers, readAddress, readCount, resp, 3);
+		return 3 + readCount * 2;
+	}
+
+	/**
+	 * Length of a request frame, known from its first bytes
+	 * @param req		received bytes [ID(1), PDU(n), CRC(2)]
+	 * @param length	number of bytes received
+	 * @return frame length, 0 if more bytes are needed to tell, -1 if the function is not supported 
+	 */
+	public static int requestLength(byte[] req, int length) {
+		if (length < 2)
+			return 0;
+		switch (req[1] & 0xFF) {
+		case FN_READ_COILS:
+		case FN_READ_DISCRETE_INPUTS:
+		case FN_READ_HOLDING_REGISTERS:
+		case FN_READ_INPUT_REGISTERS:
+		case FN_WRITE_SINGLE_COIL:
+		case FN_WRITE_SINGLE_REGISTER:
+			return 8; // id(1), function(1), address(2), count or value(2), crc(2)
+		case FN_WRITE_MULTIPLE_COILS:
+		case FN_WRITE_MULTIPLE_REGISTERS:
+			// id(1), function(1), address(2), count(2), byte count(1), data(n), crc(2)
+			return (length < 7) ? 0 : 9 + (req[6] & 0xFF);
+		case FN_MASK_WRITE_REGISTER:
+			return 10;
+		case FN_READ_WRITE_MULTIPLE_REGISTERS:
+			// id(1), function(1), read address(2), read count(2), write address(2), write count(2), byte count(1), data(n), crc(2)
+			return (length < 11) ? 0 : 13 + (req[10] & 0xFF);
+		default:
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package tijos.framework.component.modbus.server;
+
+import java.io.IOException;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+import tijos.framework.component.rs485.TiRS485;
+import tijos.framework.util.logging.Logger;
+
+/**
+ * Serves a {@link ModbusServer} on a RS485 line. The request length is known from its 
+ * function code, so the request is processed as soon as its last byte arrives. 
+ * Noise and incomplete frames are dropped at the next silence on the line.
+ * @author TiJOS
+ *
+ */
+public class RtuServerUART implements Runnable {
+
+	private static final int POLL_TIMEOUT = 100; // ms, how often run() checks for stop()
+
+	private final TiRS485 rs485;
+	private final ModbusServer server;
+	private final byte[] request = new byte[256];
+	private final byte[] response = new byte[256];
+
+	private int responseDelay = -1; // microseconds, -1 for 3.5 characters
+	private volatile boolean running;
+	private Thread thread;
+
+	private long frameErrors;
+	private long maxProcessingNanos;
+
+	/**
+	 * Initialize with an opened RS485 line
+	 * @param rs485
+	 * @param server
+	 */
+	public RtuServerUART(TiRS485 rs485, ModbusServer server) {
+		this.rs485 = rs485;
+		this.server = server;
+	}
+
+	public ModbusServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Set the silence kept between the end of request and the response
+	 * @param micros	delay in microseconds, -1 for the inter-frame delay of 3.5 characters
+	 */
+	public void setResponseDelay(int micros) {
+		this.responseDelay = micros;
+	}
+
+	/**
+	 * Silence between the end of request and the response
+	 * @return microseconds
+	 */
+	public int getResponseDelay() {
+		if (responseDelay >= 0)
+			return responseDelay;
+		// 3.5 characters, fixed 1750us above 19200 baud
+		return Math.max(rs485.getCharTime() * 7 / 2, 1750);
+	}
+
+	/**
+	 * Serve requests on a new thread
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "modbus-server");
+		thread.start();
+	}
+
+	/**
+	 * Stop serving and wait for the thread to end
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+			running = false;
+		}
+		if (t != null)
+			t.join();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				serveOnce(POLL_TIMEOUT);
+			} catch (IOException e) {
+				Logger.warning("ModbusServer", "serve: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Receive one request and answer it
+	 * @param timeout	time to wait for the first byte in ms
+	 * @return true if a response was sent
+	 * @throws IOException
+	 */
+	public boolean serveOnce(int timeout) throws IOException {
+		// characters of a frame follow each other without a gap, 3.5 characters of silence end it
+		int gap = Math.max(1, (getResponseDelay() + 999) / 1000);
+		int length = 0;
+		int expected = 0;
+		int wait = timeout;
+		for (;;) {
+			int want;
+			if (expected > 0)
+				want = expected - length;
+			else if (expected == 0)
+				want = Math.max(8 - length, 1); // shortest request
+			else
+				want = request.length - length; // unknown function, read until silence
+			if (want <= 0)
+				break;
+			int res = rs485.read(request, length, want, wait);
+			if (res <= 0)
+				break;
+			length += res;
+			wait = gap;
+			if (expected == 0) {
+				expected = ModbusServer.requestLength(request, length);
+				if (expected > request.length)
+					expected = -1;
+			}
+		}
+		long end = System.nanoTime();
+		if (length == 0)
+			return false;
+		if ((expected > 0) && (length < expected)) {
+			frameErrors++;
+			return false;
+		}
+
+		int size = server.process(request, length, response);
+		long elapsed = System.nanoTime() - end;
+		if (elapsed > maxProcessingNanos)
+			maxProcessingNanos = elapsed;
+		if (size == 0) {
+			// broadcast or another server, unless it is noise
+			if (!ModbusPdu.checkCRC16(request, 0, length)) {
+				frameErrors++;
+				drain(gap);
+			}
+			return false;
+		}
+
+		long delay = getResponseDelay() * 1000L - (System.nanoTime() - end);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		rs485.write(response, 0, size);
+		return true;
+	}
+
+	/**
+	 * Discard input until the line is silent
+	 * @param gap	silence in ms
+	 * @throws IOException
+	 */
+	private void drain(int gap) throws IOException {
+		while (rs485.read(request, 0, request.length, gap) > 0)
+			;
+	}
+
+	/**
+	 * Number of incomplete frames and frames with CRC error
+	 * @return
+	 */
+	public long getFrameErrors() {
+		return frameErrors;
+	}
+
+	/**
+	 * Longest time from the end of request to the response being ready
+	 * @return microseconds
+	 */
+	public long getMaxProcessingTime() {
+		return maxProcessingNanos / 1000;
+	}
+}
@@ -0,0 +1,29 @@
+package tijos.framework.component.modbus.server;
+
+/**
+ * Optional hooks of {@link ModbusServer}, called on the thread processing the request 
+ * while it holds the lock of the {@link ServerData}. Must return quickly.
+ * @author TiJOS
+ *
+ */
+public interface ServerCallback {
+
+	/**
+	 * A range is about to be read, computed values can be stored into the data now
+	 * @param data
+	 * @param table		FN_READ_*
+	 * @param address	first register or bit
+	 * @param count		number of registers or bits
+	 * @return 0 to serve the request, or MODBUS exception code EX_*
+	 */
+	public int onRead(ServerData data, int table, int address, int count);
+
+	/**
+	 * A range of holding registers or coils has been written
+	 * @param data
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_COILS
+	 * @param address	first register or bit
+	 * @param count		number of registers or bits
+	 */
+	public void onWrite(ServerData data, int table, int address, int count);
+}
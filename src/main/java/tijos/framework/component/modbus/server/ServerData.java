@@ -0,0 +1,132 @@
+package tijos.framework.component.modbus.server;
+
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+/**
+ * Register and coil tables served by a {@link ModbusServer}, all tables start from address 0. 
+ * Coils and discrete inputs are packed 64 to a long. The application may update values from 
+ * any thread, each access is atomic with respect to the processing of a request.
+ * @author TiJOS
+ *
+ */
+public class ServerData {
+
+	final long[] coils;
+	final long[] discreteInputs;
+	final short[] holdingRegisters;
+	final short[] inputRegisters;
+	final int coilCount;
+	final int discreteInputCount;
+
+	/**
+	 * Initialize tables, all values are 0
+	 * @param coilCount
+	 * @param discreteInputCount
+	 * @param holdingRegisterCount
+	 * @param inputRegisterCount
+	 */
+	public ServerData(int coilCount, int discreteInputCount, int holdingRegisterCount, int inputRegisterCount) {
+		this.coilCount = coilCount;
+		this.discreteInputCount = discreteInputCount;
+		this.coils = new long[(coilCount + 63) >> 6];
+		this.discreteInputs = new long[(discreteInputCount + 63) >> 6];
+		this.holdingRegisters = new short[holdingRegisterCount];
+		this.inputRegisters = new short[inputRegisterCount];
+	}
+
+	public synchronized int getHoldingRegister(int address) {
+		return holdingRegisters[address] & 0xFFFF;
+	}
+
+	public synchronized void setHoldingRegister(int address, int value) {
+		holdingRegisters[address] = (short) value;
+	}
+
+	public synchronized int getInputRegister(int address) {
+		return inputRegisters[address] & 0xFFFF;
+	}
+
+	public synchronized void setInputRegister(int address, int value) {
+		inputRegisters[address] = (short) value;
+	}
+
+	public synchronized boolean getCoil(int address) {
+		checkBit(address, coilCount);
+		return (coils[address >> 6] & (1L << (address & 63))) != 0;
+	}
+
+	public synchronized void setCoil(int address, boolean value) {
+		checkBit(address, coilCount);
+		setBit(coils, address, value);
+	}
+
+	public synchronized boolean getDiscreteInput(int address) {
+		checkBit(address, discreteInputCount);
+		return (discreteInputs[address >> 6] & (1L << (address & 63))) != 0;
+	}
+
+	public synchronized void setDiscreteInput(int address, boolean value) {
+		checkBit(address, discreteInputCount);
+		setBit(discreteInputs, address, value);
+	}
+
+	/**
+	 * Copy consecutive registers into a table
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	first register
+	 * @param values
+	 * @param offset	offset in values
+	 * @param count		number of registers
+	 */
+	public synchronized void setRegisters(int table, int address, short[] values, int offset, int count) {
+		System.arraycopy(values, offset, registers(table), address, count);
+	}
+
+	/**
+	 * Copy consecutive registers from a table
+	 * @param table		FN_READ_HOLDING_REGISTERS or FN_READ_INPUT_REGISTERS
+	 * @param address	first register
+	 * @param dest
+	 * @param offset	offset in dest
+	 * @param count		number of registers
+	 */
+	public synchronized void getRegisters(int table, int address, short[] dest, int offset, int count) {
+		System.arraycopy(registers(table), address, dest, offset, count);
+	}
+
+	/**
+	 * Number of registers or bits of a table
+	 * @param table	FN_READ_*
+	 * @return
+	 */
+	public int getSize(int table) {
+		switch (table) {
+		case FN_READ_COILS:
+			return coilCount;
+		case FN_READ_DISCRETE_INPUTS:
+			return discreteInputCount;
+		default:
+			return registers(table).length;
+		}
+	}
+
+	private short[] registers(int table) {
+		if (table == FN_READ_HOLDING_REGISTERS)
+			return holdingRegisters;
+		if (table == FN_READ_INPUT_REGISTERS)
+			return inputRegisters;
+		throw new IllegalArgumentException("Not a register table: " + table);
+	}
+
+	private static void checkBit(int address, int count) {
+		if ((address < 0) || (address >= count))
+			throw new IndexOutOfBoundsException();
+	}
+
+	static void setBit(long[] bits, int address, boolean value) {
+		if (value)
+			bits[address >> 6] |= 1L << (address & 63);
+		else
+			bits[address >> 6] &= ~(1L << (address & 63));
+	}
+}
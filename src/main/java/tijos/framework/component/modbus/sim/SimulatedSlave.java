@@ -0,0 +1,151 @@
+package tijos.framework.component.modbus.sim;
+
+import tijos.framework.component.modbus.server.ModbusServer;
+import tijos.framework.component.modbus.server.ServerData;
+
+/**
+ * Simulated MODBUS RTU slave with its own register map and fault settings, 
+ * served through a {@link SimulatedSlavePool}. Requests are processed by a {@link ModbusServer}.
+ * @author TiJOS
+ *
+ */
+public class SimulatedSlave {
+
+	private final ServerData data;
+	private final ModbusServer server;
+
+	private long latencyMicros;
+	private double timeoutRate;
+	private double crcErrorRate;
+	private boolean online = true;
+
+	/**
+	 * Initialize slave with register map sizes, all tables start from address 0
+	 * @param id	server id 1..247
+	 * @param registerCount number of holding and input registers
+	 * @param bitCount	number of coils and discrete inputs
+	 */
+	public SimulatedSlave(int id, int registerCount, int bitCount) {
+		this.data = new ServerData(bitCount, bitCount, registerCount, registerCount);
+		this.server = new ModbusServer(id, data);
+	}
+
+	public int getId() {
+		return server.getServerId();
+	}
+
+	/**
+	 * Tables of the slave
+	 * @return
+	 */
+	public ServerData getData() {
+		return data;
+	}
+
+	/**
+	 * Server processing the requests, e.g. to set a callback
+	 * @return
+	 */
+	public ModbusServer getServer() {
+		return server;
+	}
+
+	public int getHoldingRegister(int address) {
+		return data.getHoldingRegister(address);
+	}
+
+	public void setHoldingRegister(int address, int value) {
+		data.setHoldingRegister(address, value);
+	}
+
+	public int getInputRegister(int address) {
+		return data.getInputRegister(address);
+	}
+
+	public void setInputRegister(int address, int value) {
+		data.setInputRegister(address, value);
+	}
+
+	public boolean getCoil(int address) {
+		return data.getCoil(address);
+	}
+
+	public void setCoil(int address, boolean value) {
+		data.setCoil(address, value);
+	}
+
+	public boolean getDiscreteInput(int address) {
+		return data.getDiscreteInput(address);
+	}
+
+	public void setDiscreteInput(int address, boolean value) {
+		data.setDiscreteInput(address, value);
+	}
+
+	/**
+	 * Delay between the end of request and the first character of response
+	 * @param micros
+	 */
+	public void setLatency(long micros) {
+		this.latencyMicros = micros;
+	}
+
+	public long getLatency() {
+		return latencyMicros;
+	}
+
+	/**
+	 * Probability of not answering a request 
+	 * @param rate 0.0 .. 1.0
+	 */
+	public void setTimeoutRate(double rate) {
+		this.timeoutRate = rate;
+	}
+
+	public double getTimeoutRate() {
+		return timeoutRate;
+	}
+
+	/**
+	 * Probability of answering with a corrupted CRC
+	 * @param rate 0.0 .. 1.0
+	 */
+	public void setCrcErrorRate(double rate) {
+		this.crcErrorRate = rate;
+	}
+
+	public double getCrcErrorRate() {
+		return crcErrorRate;
+	}
+
+	/**
+	 * Offline slave does not answer at all, like an unplugged device
+	 * @param online
+	 */
+	public void setOnline(boolean online) {
+		this.online = online;
+	}
+
+	public boolean isOnline() {
+		return online;
+	}
+
+	/**
+	 * Number of valid requests processed
+	 * @return
+	 */
+	public long getRequestCount() {
+		return server.getRequestCount();
+	}
+
+	/**
+	 * Process request ADU and build response ADU 
+	 * @param req	request [ID(1), PDU(n), CRC(2)]
+	 * @param length	request length
+	 * @param resp	response buffer, 256 bytes at least
+	 * @return response length including CRC, 0 if there is no response
+	 */
+	public int process(byte[] req, int length, byte[] resp) {
+		return server.process(req, length, resp);
+	}
+}
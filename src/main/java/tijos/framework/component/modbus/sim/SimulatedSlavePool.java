@@ -0,0 +1,85 @@
+package tijos.framework.component.modbus.sim;
+
+import java.util.Random;
+
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.SimulatedPeer;
+
+/**
+ * Set of simulated MODBUS RTU slaves sharing one {@link SimulatedLine}. 
+ * Fault injection uses a seeded random generator, so runs are repeatable.
+ * @author TiJOS
+ *
+ */
+public class SimulatedSlavePool implements SimulatedPeer {
+
+	private final SimulatedSlave[] slaves = new SimulatedSlave[248]; // id 1..247
+	private final byte[] response = new byte[256];
+	private final Random random;
+
+	/**
+	 * Initialize empty pool
+	 * @param seed seed for fault injection
+	 */
+	public SimulatedSlavePool(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Create slaves with consecutive ids and the same configuration
+	 * @param firstId	id of the first slave
+	 * @param count		number of slaves
+	 * @param registerCount	number of holding and input registers of each slave
+	 * @param bitCount	number of coils and discrete inputs of each slave
+	 * @param latencyMicros	response latency of each slave
+	 */
+	public void createSlaves(int firstId, int count, int registerCount, int bitCount, long latencyMicros) {
+		for (int i = 0; i < count; i++) {
+			SimulatedSlave slave = new SimulatedSlave(firstId + i, registerCount, bitCount);
+			slave.setLatency(latencyMicros);
+			add(slave);
+		}
+	}
+
+	public synchronized void add(SimulatedSlave slave) {
+		slaves[slave.getId()] = slave;
+	}
+
+	public synchronized void remove(int id) {
+		slaves[id] = null;
+	}
+
+	public synchronized SimulatedSlave get(int id) {
+		return slaves[id];
+	}
+
+	@Override
+	public synchronized void onFrame(SimulatedLine line, byte[] frame, int length) {
+		if (length < 1)
+			return;
+		int id = frame[0] & 0xFF;
+		if (id == 0) {
+			for (int i = 1; i < slaves.length; i++) {
+				if ((slaves[i] != null) && slaves[i].isOnline())
+					slaves[i].process(frame, length, response);
+			}
+			return;
+		}
+		if (id >= slaves.length)
+			return;
+
+		SimulatedSlave slave = slaves[id];
+		if ((slave == null) || !slave.isOnline())
+			return;
+
+		int size = slave.process(frame, length, response);
+		if (size == 0)
+			return;
+		if (random.nextDouble() < slave.getTimeoutRate())
+			return;
+		if (random.nextDouble() < slave.getCrcErrorRate())
+			response[size - 1] ^= 0x5A;
+
+		line.reply(response, 0, size, slave.getLatency());
+	}
+}
@@ -0,0 +1,63 @@
+package tijos.framework.component.rs485;
+
+import java.io.IOException;
+
+/**
+ * Serial line used by {@link TiRS485}, either a real UART or a simulated one 
+ * @author TiJOS
+ *
+ */
+public interface SerialLine {
+
+	/**
+	 * Set communication parameters
+	 * @param dataBitNum
+	 * @param stopBitNum
+	 * @param parity
+	 * @param baudRate
+	 * @throws IOException
+	 */
+	public void setWorkParameters(int dataBitNum, int stopBitNum, int parity, int baudRate) throws IOException;
+
+	/**
+	 * Discard all received data not read yet
+	 * @throws IOException
+	 */
+	public void clearInput() throws IOException;
+
+	/**
+	 * Write data to the line
+	 * @param buffer
+	 * @param start
+	 * @param length
+	 * @throws IOException
+	 */
+	public void write(byte[] buffer, int start, int length) throws IOException;
+
+	/**
+	 * Read the data already received, does not block
+	 * @param buffer
+	 * @param start
+	 * @param length
+	 * @return number of bytes read, 0 if nothing is available
+	 * @throws IOException
+	 */
+	public int read(byte[] buffer, int start, int length) throws IOException;
+
+	/**
+	 * Read data, blocks until at least one byte is available or the timeout expires
+	 * @param buffer
+	 * @param start
+	 * @param length
+	 * @param timeout timeout in milliseconds
+	 * @return number of bytes read, 0 on timeout
+	 * @throws IOException
+	 */
+	public int read(byte[] buffer, int start, int length, int timeout) throws IOException;
+
+	/**
+	 * Close 
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
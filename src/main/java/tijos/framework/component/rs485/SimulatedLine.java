@@ -0,0 +1,157 @@
+package tijos.framework.component.rs485;
+
+import java.io.IOException;
+
+/**
+ * In-memory serial line for testing without hardware. 
+ * Every write is handed to the {@link SimulatedPeer} as one frame, transmission 
+ * and reception take the time of the characters on the wire at the configured baud rate.
+ * @author TiJOS
+ *
+ */
+public class SimulatedLine implements SerialLine {
+
+	private final SimulatedPeer peer;
+
+	private final byte[] rxBuffer = new byte[512];
+	private int rxLength;
+	private int rxPos;
+	private long rxStartNanos; // arrival time of the first received byte
+
+	private long charNanos;
+	private boolean closed;
+
+	/**
+	 * Initialize with the device(s) on the line, 9600 8N1 by default
+	 * @param peer
+	 */
+	public SimulatedLine(SimulatedPeer peer) {
+		this.peer = peer;
+		setCharTime(9600, 8, 1, 0);
+	}
+
+	@Override
+	public synchronized void setWorkParameters(int dataBitNum, int stopBitNum, int parity, int baudRate) throws IOException {
+		if (baudRate <= 0)
+			throw new IOException("Invalid baud rate: " + baudRate);
+		setCharTime(baudRate, dataBitNum, stopBitNum, parity);
+	}
+
+	private void setCharTime(int baudRate, int dataBitNum, int stopBitNum, int parity) {
+		// start bit + data bits + parity bit + stop bits
+		int bits = 1 + dataBitNum + (parity != 0 ? 1 : 0) + stopBitNum;
+		this.charNanos = bits * 1000000000L / baudRate;
+	}
+
+	/**
+	 * Time of one character on the wire
+	 * @return nanoseconds
+	 */
+	public synchronized long getCharNanos() {
+		return charNanos;
+	}
+
+	@Override
+	public synchronized void clearInput() throws IOException {
+		rxLength = 0;
+		rxPos = 0;
+	}
+
+	/**
+	 * Write a frame, blocks until the last character has left the line 
+	 */
+	@Override
+	public void write(byte[] buffer, int start, int length) throws IOException {
+		long txNanos;
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Line closed");
+			txNanos = length * charNanos;
+		}
+		sleepNanos(txNanos);
+		if (start != 0) {
+			byte[] frame = new byte[length];
+			System.arraycopy(buffer, start, frame, 0, length);
+			buffer = frame;
+		}
+		peer.onFrame(this, buffer, length);
+	}
+
+	/**
+	 * Answer from the peer, the first character arrives after the given delay
+	 * @param data
+	 * @param start
+	 * @param length
+	 * @param delayMicros response latency of the peer
+	 */
+	public synchronized void reply(byte[] data, int start, int length, long delayMicros) {
+		if (length > rxBuffer.length)
+			throw new IllegalArgumentException("Reply too long: " + length);
+		System.arraycopy(data, start, rxBuffer, 0, length);
+		rxLength = length;
+		rxPos = 0;
+		rxStartNanos = System.nanoTime() + delayMicros * 1000;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized int read(byte[] buffer, int start, int length) throws IOException {
+		if (closed)
+			throw new IOException("Line closed");
+		if (rxPos >= rxLength)
+			return 0;
+		long elapsed = System.nanoTime() - rxStartNanos;
+		if (elapsed <= 0)
+			return 0;
+		int arrived = (int) Math.min(rxLength, elapsed / charNanos);
+		int count = Math.min(arrived - rxPos, length);
+		if (count <= 0)
+			return 0;
+		System.arraycopy(rxBuffer, rxPos, buffer, start, count);
+		rxPos += count;
+		return count;
+	}
+
+	/**
+	 * Blocks until the next character arrives on the line or the timeout expires
+	 */
+	@Override
+	public synchronized int read(byte[] buffer, int start, int length, int timeout) throws IOException {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		while (true) {
+			int res = read(buffer, start, length);
+			if (res > 0)
+				return res;
+			long now = System.nanoTime();
+			long wait = deadline - now;
+			if (wait <= 0)
+				return 0;
+			if (rxPos < rxLength) 
+				wait = Math.min(wait, rxStartNanos + (rxPos + 1) * charNanos - now);
+			try {
+				if (wait > 0)
+					wait(wait / 1000000, (int) (wait % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		notifyAll();
+	}
+
+	private static void sleepNanos(long nanos) throws IOException {
+		if (nanos <= 0)
+			return;
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
+	}
+}
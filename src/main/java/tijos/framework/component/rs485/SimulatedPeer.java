@@ -0,0 +1,18 @@
+package tijos.framework.component.rs485;
+
+/**
+ * Device on the other end of a {@link SimulatedLine}
+ * @author TiJOS
+ *
+ */
+public interface SimulatedPeer {
+
+	/**
+	 * Called when a frame has been completely transmitted on the line. 
+	 * The peer answers, if at all, with {@link SimulatedLine#reply(byte[], int, int, long)}.
+	 * @param line   line the frame was sent on
+	 * @param frame  frame data, only valid during the call
+	 * @param length frame length
+	 */
+	public void onFrame(SimulatedLine line, byte[] frame, int length);
+}
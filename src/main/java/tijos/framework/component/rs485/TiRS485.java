@@ -3,8 +3,6 @@ package tijos.framework.component.rs485;
 import java.io.IOException;
 
 import tijos.framework.devicecenter.TiGPIO;
-import tijos.framework.devicecenter.TiUART;
-import tijos.framework.util.Delay;
 import tijos.framework.util.Formatter;
 import tijos.framework.util.logging.Logger;
 
@@ -15,9 +13,12 @@ import tijos.framework.util.logging.Logger;
  */
 public class TiRS485 {
 
-	private TiUART uart;
+	private SerialLine uart;
 	private TiGPIO gpio;
 	private int gpioPin;
+	private boolean transmitting; // direction of the transceiver, set by the first write or read
+	private boolean directionSet;
+	private int charTime; // time of one character on the line in microseconds, 0 if unknown
 
 	/**
 	 * Initialize RS485 with UART and GPIO
@@ -29,7 +30,7 @@ public class TiRS485 {
 	public TiRS485(int uartPort, int gpioPort, int gpioPin) throws IOException {
 
 		// RS485使用UART1 根据外设进行初始化
-		uart = TiUART.open(uartPort);
+		uart = new TiUARTLine(uartPort);
 
 		if(gpioPort >= 0) {
 			// RS485 使用GPIO Port3 Pin4 进行半双工切换
@@ -40,6 +41,15 @@ public class TiRS485 {
 		}
 	}
 
+	/**
+	 * Initialize RS485 with a serial line which switches direction itself, 
+	 * e.g. {@link SimulatedLine}
+	 * @param line serial line
+	 */
+	public TiRS485(SerialLine line) {
+		this.uart = line;
+	}
+
 	/**
 	 * Open with communication parameters
 	 * @param baudRate  
@@ -52,6 +62,18 @@ public class TiRS485 {
 
 		// UART通讯参数
 		uart.setWorkParameters(dataBitNum, stopBitNum, parity, baudRate);
+
+		// start bit + data bits + parity bit + stop bits
+		int bits = 1 + dataBitNum + (parity != 0 ? 1 : 0) + stopBitNum;
+		this.charTime = (bits * 1000000 + baudRate - 1) / baudRate;
+	}
+
+	/**
+	 * Time of one character on the line
+	 * @return microseconds, 0 if the line has not been opened by {@link #open(int, int, int, int)}
+	 */
+	public int getCharTime() {
+		return charTime;
 	}
 	
 	/**
@@ -68,7 +90,7 @@ public class TiRS485 {
 	 */
 	public void clearInput() throws IOException {
 			
-		this.uart.clear(TiUART.BUFF_READ);
+		this.uart.clearInput();
 	}
 
 	/**
@@ -80,15 +102,43 @@ public class TiRS485 {
 	 */
 	public void write(byte [] buffer ,int start ,int length) throws IOException {
 		
-		if(gpio != null)
+		if((gpio != null) && (!transmitting || !directionSet))
 		{
-			Logger.info("TiRS485", "sendReqeust GPIO high");
 			this.gpio.writePin(this.gpioPin, 1);
 		}
+		transmitting = true;
+		directionSet = true;
 		
 		this.uart.write(buffer, start, length);
 	}
 
+	/**
+	 * Switch RS485 transceiver to receive if it is not already
+	 * @throws IOException
+	 */
+	private void setReceive() throws IOException {
+		if((gpio != null) && (transmitting || !directionSet))
+		{
+			this.gpio.writePin(this.gpioPin, 0);
+		}
+		transmitting = false;
+		directionSet = true;
+	}
+
+	/**
+	 * Read whatever data is available, waits for the first byte until timeout 
+	 * @param buffer
+	 * @param start
+	 * @param length	maximum number of bytes
+	 * @param timeOut	timeout in milliseconds
+	 * @return number of bytes read, 0 on timeout
+	 * @throws IOException
+	 */
+	public int read(byte[] buffer, int start, int length, int timeOut) throws IOException {
+		setReceive();
+		return this.uart.read(buffer, start, length, timeOut);
+	}
+
 	/**
 	 * Read data into buffer from the UART
 	 * 
@@ -100,11 +150,7 @@ public class TiRS485 {
 	 */
 	public boolean readToBuffer(byte[] buffer, int start, int length, int timeOut) throws IOException {
 
-		if(gpio != null)
-		{
-			Logger.info("TiRS485", "readResponse GPIO low");
-			this.gpio.writePin(this.gpioPin, 0);
-		}
+		setReceive();
 		
 		long now = System.currentTimeMillis();
 		long deadline = now + timeOut;
@@ -112,15 +158,12 @@ public class TiRS485 {
 		int bytesToRead = length;
 		int res;
 		while ((now < deadline) && (bytesToRead > 0)) {
-			res = this.uart.read(buffer, offset, bytesToRead);
-			if (res <= 0) {
-				Delay.msDelay(10);
-				now = System.currentTimeMillis();
-				continue;
+			// blocks until data arrives, no fixed sleep between the chunks 
+			res = this.uart.read(buffer, offset, bytesToRead, (int) (deadline - now));
+			if (res > 0) {
+				offset += res;
+				bytesToRead -= res;
 			}
-
-			offset += res;
-			bytesToRead -= res;
 			if (bytesToRead > 0) // only to avoid redundant call of System.currentTimeMillis()
 				now = System.currentTimeMillis();
 		}
@@ -0,0 +1,73 @@
+package tijos.framework.component.rs485;
+
+import java.io.IOException;
+
+import tijos.framework.devicecenter.TiUART;
+import tijos.framework.util.Delay;
+
+/**
+ * Serial line based on TiUART 
+ * @author TiJOS
+ *
+ */
+public class TiUARTLine implements SerialLine {
+
+	private TiUART uart;
+	private int pollInterval = 1; // ms, time of a few characters at the current baud rate
+
+	/**
+	 * Initialize with UART port
+	 * @param uartPort UART port id
+	 * @throws IOException
+	 */
+	public TiUARTLine(int uartPort) throws IOException {
+		this.uart = TiUART.open(uartPort);
+	}
+
+	@Override
+	public void setWorkParameters(int dataBitNum, int stopBitNum, int parity, int baudRate) throws IOException {
+		this.uart.setWorkParameters(dataBitNum, stopBitNum, parity, baudRate);
+
+		// poll every 4 characters: start bit + data bits + parity bit + stop bits
+		int bits = 1 + dataBitNum + (parity != TiUART.PARITY_NONE ? 1 : 0) + stopBitNum;
+		this.pollInterval = Math.max(1, (4 * bits * 1000 + baudRate - 1) / baudRate);
+	}
+
+	@Override
+	public void clearInput() throws IOException {
+		this.uart.clear(TiUART.BUFF_READ);
+	}
+
+	@Override
+	public void write(byte[] buffer, int start, int length) throws IOException {
+		this.uart.write(buffer, start, length);
+	}
+
+	@Override
+	public int read(byte[] buffer, int start, int length) throws IOException {
+		return this.uart.read(buffer, start, length);
+	}
+
+	/**
+	 * TiUART has no blocking read, poll with an interval derived from the baud rate 
+	 * so the latency added to a response is a few characters at most
+	 */
+	@Override
+	public int read(byte[] buffer, int start, int length, int timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			int res = this.uart.read(buffer, start, length);
+			if (res > 0)
+				return res;
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return 0;
+			Delay.msDelay((int) Math.min(remaining, pollInterval));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.uart.close();
+	}
+}
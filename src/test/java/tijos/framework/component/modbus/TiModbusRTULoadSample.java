@@ -0,0 +1,51 @@
+package tijos.framework.component.modbus;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+import tijos.framework.devicecenter.TiUART;
+
+/**
+ * MODBUS RTU throughput test on a simulated RS485 bus
+ *
+ */
+public class TiModbusRTULoadSample {
+	public static void main(String[] args) {
+		System.out.println("Hello Modbus RTU load test!");
+
+		try {
+			// 200 个模拟从站, 每个100个寄存器, 响应延迟 2ms
+			int servers = 200;
+			SimulatedSlavePool pool = new SimulatedSlavePool(1);
+			pool.createSlaves(1, servers, 100, 100, 2000);
+
+			// 模拟485总线 115200，8，1，N
+			TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+			rs485.open(115200, 8, 1, TiUART.PARITY_NONE);
+
+			// 通讯超时100 ms, 读取数据前不等待
+			ModbusClient mc = new ModbusClient(rs485, 100, 0);
+
+			int rounds = 5;
+			int errors = 0;
+			long start = System.currentTimeMillis();
+			for (int round = 0; round < rounds; round++) {
+				for (int serverId = 1; serverId <= servers; serverId++) {
+					mc.InitReadHoldingsRequest(serverId, 0, 10);
+					if (mc.execRequest() != ModbusClient.RESULT_OK)
+						errors++;
+				}
+			}
+			long elapsed = System.currentTimeMillis() - start;
+
+			int total = rounds * servers;
+			System.out.println("requests = " + total + " errors = " + errors + " time = " + elapsed + " ms");
+			System.out.println("throughput = " + (total * 1000L / Math.max(1, elapsed)) + " req/s");
+
+			mc.close();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+}
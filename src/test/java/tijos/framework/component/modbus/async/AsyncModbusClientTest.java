@@ -0,0 +1,141 @@
+package tijos.framework.component.modbus.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Stopping and callbacks of {@link AsyncModbusClient}
+ * @author TiJOS
+ *
+ */
+public class AsyncModbusClientTest {
+
+	private static ModbusClient client() throws IOException {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(921600, 8, 1, 0);
+		return new ModbusClient(rs485, 20, 0);
+	}
+
+	@Test
+	public void submitAfterStopFails() throws Exception {
+		AsyncModbusClient bus = new AsyncModbusClient(client());
+		bus.start();
+		bus.stop();
+		ModbusFuture f = bus.submit(ModbusRequest.readHoldings(1, 0, 1));
+		assertTrue(f.isDone());
+		assertNotNull(f.getError());
+	}
+
+	@Test
+	public void submitBeforeStartIsExecuted() throws Exception {
+		AsyncModbusClient bus = new AsyncModbusClient(client());
+		ModbusFuture f = bus.submit(ModbusRequest.readHoldings(1, 0, 1));
+		bus.start();
+		assertEquals(ModbusClient.RESULT_OK, f.get(1000).getResult());
+		bus.stop();
+	}
+
+	@Test
+	public void submitRacingStopCompletes() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final AsyncModbusClient bus = new AsyncModbusClient(client());
+			bus.start();
+			final List<ModbusFuture> futures = new ArrayList<ModbusFuture>();
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						ModbusFuture f = bus.submit(ModbusRequest.readHoldings(1, 0, 1));
+						synchronized (futures) {
+							futures.add(f);
+						}
+					}
+				}
+			});
+			producer.start();
+			Thread.sleep(1);
+			bus.stop();
+			producer.join();
+			synchronized (futures) {
+				for (ModbusFuture f : futures) {
+					synchronized (f) {
+						if (!f.isDone())
+							f.wait(1000);
+					}
+					assertTrue(f.isDone());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void throwingCallbackKeepsBusRunning() throws Exception {
+		AsyncModbusClient bus = new AsyncModbusClient(client());
+		bus.start();
+		bus.submit(ModbusRequest.readHoldings(1, 0, 1), new ModbusCallback() {
+			@Override
+			public void onComplete(ModbusFuture future) {
+				throw new RuntimeException("callback failure");
+			}
+		});
+		ModbusFuture f = bus.submit(ModbusRequest.readHoldings(1, 0, 1));
+		assertNotNull(f.get(1000));
+		bus.stop();
+	}
+
+	@Test
+	public void callbackSubmittingDuringStop() throws Exception {
+		final AsyncModbusClient bus = new AsyncModbusClient(client());
+		bus.start();
+		final Object started = new Object();
+		final ModbusFuture[] resubmitted = new ModbusFuture[1];
+		synchronized (started) {
+			bus.submit(ModbusRequest.readHoldings(1, 0, 1), new ModbusCallback() {
+				@Override
+				public void onComplete(ModbusFuture future) {
+					synchronized (started) {
+						started.notifyAll();
+					}
+					try {
+						Thread.sleep(100); // stop() is waiting for the bus thread now
+					} catch (InterruptedException e) {
+						return;
+					}
+					resubmitted[0] = bus.submit(ModbusRequest.readHoldings(1, 0, 1));
+				}
+			});
+			started.wait(1000);
+		}
+		Thread stopper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					bus.stop();
+				} catch (InterruptedException e) {
+					// test fails below
+				}
+			}
+		});
+		stopper.start();
+		stopper.join(2000);
+		assertFalse(stopper.isAlive());
+		assertTrue(resubmitted[0].isDone());
+		assertNotNull(resubmitted[0].getError());
+	}
+}
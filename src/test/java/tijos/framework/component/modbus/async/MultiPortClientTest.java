@@ -0,0 +1,97 @@
+package tijos.framework.component.modbus.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Routing and stopping of {@link MultiPortClient}
+ * @author TiJOS
+ *
+ */
+public class MultiPortClientTest {
+
+	private static MultiPortClient client() throws IOException {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(921600, 8, 1, 0);
+		MultiPortClient multi = new MultiPortClient();
+		int port = multi.addPort(new ModbusClient(rs485, 20, 0));
+		multi.mapServers(1, 1, port);
+		return multi;
+	}
+
+	@Test
+	public void invalidServerId() throws Exception {
+		MultiPortClient multi = client();
+		multi.start();
+		try {
+			assertEquals(ModbusClient.RESULT_OK, multi.execute(ModbusRequest.readHoldings(1, 0, 1)).getResult());
+			int[] ids = { 2, 248, 300, -1 };
+			for (int i = 0; i < ids.length; i++) {
+				try {
+					multi.submit(ModbusRequest.readHoldings(ids[i], 0, 1));
+					fail("id " + ids[i]);
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+				assertEquals(-1, multi.getPortOf(ids[i]));
+			}
+		} finally {
+			multi.stop();
+		}
+	}
+
+	@Test
+	public void callbackSubmittingDuringStop() throws Exception {
+		final MultiPortClient multi = client();
+		multi.start();
+		final Object started = new Object();
+		final ModbusFuture[] resubmitted = new ModbusFuture[1];
+		synchronized (started) {
+			multi.submit(ModbusRequest.readHoldings(1, 0, 1), new ModbusCallback() {
+				@Override
+				public void onComplete(ModbusFuture future) {
+					synchronized (started) {
+						started.notifyAll();
+					}
+					try {
+						Thread.sleep(100); // stop() is waiting for the bus thread now
+					} catch (InterruptedException e) {
+						return;
+					}
+					resubmitted[0] = multi.submit(ModbusRequest.readHoldings(1, 0, 1));
+				}
+			});
+			started.wait(1000);
+		}
+		Thread stopper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					multi.stop();
+				} catch (InterruptedException e) {
+					// test fails below
+				}
+			}
+		});
+		stopper.start();
+		stopper.join(2000);
+		assertFalse(stopper.isAlive());
+		assertTrue(resubmitted[0].isDone());
+		assertNotNull(resubmitted[0].getError());
+	}
+}
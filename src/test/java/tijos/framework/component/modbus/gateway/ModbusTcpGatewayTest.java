@@ -0,0 +1,106 @@
+package tijos.framework.component.modbus.gateway;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Exception codes answered by the gateway
+ * @author TiJOS
+ *
+ */
+public class ModbusTcpGatewayTest {
+
+	private static int transaction;
+
+	private static byte[] request(Socket s, int unit, byte[] pdu) throws IOException {
+		DataOutputStream out = new DataOutputStream(s.getOutputStream());
+		int tid = ++transaction;
+		out.writeShort(tid);
+		out.writeShort(0);
+		out.writeShort(pdu.length + 1);
+		out.writeByte(unit);
+		out.write(pdu);
+		out.flush();
+
+		DataInputStream in = new DataInputStream(s.getInputStream());
+		assertEquals(tid, in.readUnsignedShort());
+		assertEquals(0, in.readUnsignedShort());
+		byte[] response = new byte[in.readUnsignedShort() - 1];
+		assertEquals(unit, in.readUnsignedByte());
+		in.readFully(response);
+		return response;
+	}
+
+	@Test
+	public void exceptionCodes() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		pool.get(1).setHoldingRegister(0, 1234);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		ModbusTcpGateway gateway = new ModbusTcpGateway(new ModbusClient(rs485, 50, 0));
+		gateway.start(0);
+		Socket s = new Socket("127.0.0.1", gateway.getPort());
+		try {
+			// unsupported function
+			byte[] r = request(s, 1, new byte[] { 0x2B, 0x0E, 0x01, 0x00 });
+			assertEquals(0xAB, r[0] & 0xFF);
+			assertEquals(1, r[1]);
+
+			// supported function, malformed PDU
+			r = request(s, 1, new byte[] { 0x03, 0x00, 0x00, 0x00 });
+			assertEquals(0x83, r[0] & 0xFF);
+			assertEquals(3, r[1]);
+			r = request(s, 1, new byte[] { 0x03, 0x00, 0x00, 0x00, 0x00 });
+			assertEquals(0x83, r[0] & 0xFF);
+			assertEquals(3, r[1]);
+			r = request(s, 1, new byte[] { 0x10, 0x00, 0x00, 0x00, 0x01, 0x04, 0x00, 0x01 });
+			assertEquals(0x90, r[0] & 0xFF);
+			assertEquals(3, r[1]);
+
+			// the connection is still served
+			r = request(s, 1, new byte[] { 0x03, 0x00, 0x00, 0x00, 0x01 });
+			assertEquals(3, r[0]);
+			assertEquals(1234, ((r[2] & 0xFF) << 8) | (r[3] & 0xFF));
+		} finally {
+			s.close();
+			gateway.stop();
+		}
+	}
+
+	@Test
+	public void restart() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		pool.get(1).setHoldingRegister(0, 1234);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		ModbusTcpGateway gateway = new ModbusTcpGateway(new ModbusClient(rs485, 50, 0));
+		gateway.setMaxConnections(1);
+		byte[] read = new byte[] { 0x03, 0x00, 0x00, 0x00, 0x01 };
+		for (int cycle = 0; cycle < 3; cycle++) {
+			gateway.start(0);
+			assertEquals(0, gateway.getConnectionCount());
+			// connections left open are closed by stop()
+			Socket s = new Socket("127.0.0.1", gateway.getPort());
+			byte[] r = request(s, 1, read);
+			assertEquals(3, r[0]);
+			assertEquals(1234, ((r[2] & 0xFF) << 8) | (r[3] & 0xFF));
+			assertEquals(1, gateway.getConnectionCount());
+			gateway.stop();
+			assertEquals(0, gateway.getConnectionCount());
+			s.close();
+		}
+	}
+}
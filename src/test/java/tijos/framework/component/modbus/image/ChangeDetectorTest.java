@@ -0,0 +1,90 @@
+package tijos.framework.component.modbus.image;
+
+import static org.junit.Assert.assertEquals;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.FN_READ_HOLDING_REGISTERS;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.sim.SimulatedSlave;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Deadbands of {@link ChangeDetector} in the signed and unsigned domains
+ * @author TiJOS
+ *
+ */
+public class ChangeDetectorTest {
+
+	private final List<String> changes = new ArrayList<String>();
+
+	private ChangeDetector detector() {
+		ChangeDetector detector = new ChangeDetector(16);
+		detector.add(1, 10, 0);
+		detector.addListener(new ChangeListener() {
+			@Override
+			public void onChanges(ChangeSet set) {
+				for (int i = 0; i < set.size(); i++)
+					changes.add(set.getAddress(i) + "=" + set.getValue(i));
+			}
+		});
+		return detector;
+	}
+
+	private void scan(ModbusClient client, ChangeDetector detector) throws Exception {
+		client.InitReadHoldingsRequest(1, 0, 2);
+		assertEquals(ModbusClient.RESULT_OK, client.execRequest());
+		detector.flush();
+	}
+
+	@Test
+	public void signedAndUnsigned() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 10, 10, 0);
+		SimulatedSlave slave = pool.get(1);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		ModbusClient client = new ModbusClient(rs485, 50, 0);
+		ChangeDetector detector = detector();
+		client.addResponseListener(detector);
+		// register 0 signed, register 1 unsigned, both with deadband 10
+		detector.setDeadband(1, FN_READ_HOLDING_REGISTERS, 0, 2, 10);
+		detector.setUnsigned(1, FN_READ_HOLDING_REGISTERS, 1, 1, true);
+
+		slave.setHoldingRegister(0, 32767);
+		slave.setHoldingRegister(1, 32767);
+		scan(client, detector);
+		assertEquals("[0=32767, 1=32767]", changes.toString());
+		changes.clear();
+
+		// +2 wraps in the signed domain only
+		slave.setHoldingRegister(0, 32769);
+		slave.setHoldingRegister(1, 32769);
+		scan(client, detector);
+		assertEquals("[0=-32767]", changes.toString());
+		changes.clear();
+
+		// 65535 to 1 wraps in the unsigned domain only
+		slave.setHoldingRegister(0, 65535);
+		slave.setHoldingRegister(1, 65535);
+		scan(client, detector);
+		assertEquals("[0=-1, 1=65535]", changes.toString());
+		changes.clear();
+		slave.setHoldingRegister(0, 1);
+		slave.setHoldingRegister(1, 1);
+		scan(client, detector);
+		assertEquals("[1=1]", changes.toString());
+		changes.clear();
+
+		// back to signed
+		detector.setUnsigned(1, FN_READ_HOLDING_REGISTERS, 1, 1, false);
+		slave.setHoldingRegister(1, 65535);
+		scan(client, detector);
+		assertEquals("[]", changes.toString());
+	}
+}
@@ -0,0 +1,87 @@
+package tijos.framework.component.modbus.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.FN_READ_COILS;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.FN_READ_HOLDING_REGISTERS;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.sim.SimulatedSlave;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Reads of a {@link DeviceImage} concurrent with its updates
+ * @author TiJOS
+ *
+ */
+public class DeviceImageTest {
+
+	private volatile boolean running = true;
+	private volatile int torn;
+
+	@Test
+	public void consistentReads() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 200, 2000, 0);
+		SimulatedSlave slave = pool.get(1);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(921600, 8, 1, 0);
+		ModbusClient client = new ModbusClient(rs485, 100, 0);
+		final DeviceImage image = new DeviceImage(1, 200, 2000);
+
+		// every update writes the same value to the whole range, a read mixing two updates is torn
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				short[] registers = new short[125];
+				long[] bits = new long[32];
+				while (running) {
+					image.readRegisters(FN_READ_HOLDING_REGISTERS, 10, registers, 0, 125);
+					for (int i = 1; i < 125; i++) {
+						if (registers[i] != registers[0]) {
+							torn++;
+							break;
+						}
+					}
+					image.readBits(FN_READ_COILS, 3, bits, 5, 1900);
+					long first = (bits[0] >>> 5) & 1;
+					for (int i = 5; i < 1905; i++) {
+						if (((bits[i >> 6] >>> (i & 63)) & 1) != first) {
+							torn++;
+							break;
+						}
+					}
+				}
+			}
+		});
+		reader.start();
+		try {
+			for (int k = 1; k <= 100; k++) {
+				for (int i = 0; i < 200; i++)
+					slave.setHoldingRegister(i, k);
+				for (int i = 0; i < 2000; i++)
+					slave.setCoil(i, (k & 1) != 0);
+				client.InitReadHoldingsRequest(1, 10, 125);
+				assertEquals(ModbusClient.RESULT_OK, client.execRequest());
+				image.update(client);
+				client.InitReadCoilsRequest(1, 3, 1900);
+				assertEquals(ModbusClient.RESULT_OK, client.execRequest());
+				image.update(client);
+			}
+		} finally {
+			running = false;
+			reader.join();
+		}
+		assertEquals(0, torn);
+		assertEquals(100, image.getRegister(FN_READ_HOLDING_REGISTERS, 50, false));
+		// registers 10..134 are in blocks 0..2
+		assertEquals(100, image.getSequence(FN_READ_HOLDING_REGISTERS, 70));
+		assertEquals(0, image.getSequence(FN_READ_HOLDING_REGISTERS, 199));
+		assertEquals(0L, image.getTimestamp(FN_READ_HOLDING_REGISTERS, 199));
+		assertFalse(image.getBit(FN_READ_COILS, 1902));
+	}
+}
@@ -0,0 +1,97 @@
+package tijos.framework.component.modbus.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusClientTransport;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Failure handling of {@link WriteBuffer}
+ * @author TiJOS
+ *
+ */
+public class WriteBufferTest {
+
+	private final SimulatedSlavePool pool = new SimulatedSlavePool(1);
+	private final ModbusClient client;
+
+	public WriteBufferTest() throws IOException {
+		pool.createSlaves(1, 1, 100, 100, 0);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		client = new ModbusClient(rs485, 20, 0);
+	}
+
+	@Test
+	public void dropAfterRetries() throws Exception {
+		WriteBuffer buffer = new WriteBuffer(client, 0, 0);
+		buffer.add(1, 100, 100);
+		buffer.setMaxRetries(1);
+		pool.get(1).setOnline(false);
+
+		buffer.writeRegister(1, 10, 5);
+		assertEquals(1, buffer.flush());
+		assertEquals(1, buffer.getPendingCount());
+		assertEquals(1, buffer.flush());
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(1, buffer.getDroppedCount());
+
+		pool.get(1).setOnline(true);
+		buffer.writeRegister(1, 10, 6);
+		assertEquals(0, buffer.flush());
+		assertEquals(6, pool.get(1).getHoldingRegister(10));
+	}
+
+	@Test
+	public void consistentAfterException() throws Exception {
+		WriteBuffer buffer = new WriteBuffer(client, 0, 0);
+		buffer.add(1, 100, 100);
+		final ModbusClientTransport bus = client.getTransport();
+		// the first request goes through, the second fails
+		client.setTransport(new ModbusClientTransport() {
+			private int requests;
+
+			@Override
+			public void sendRequest(ModbusClient modbusClient) throws Exception {
+				if (++requests == 2)
+					throw new IOException("UART failure");
+				bus.sendRequest(modbusClient);
+			}
+
+			@Override
+			public int waitResponse(ModbusClient modbusClient) throws Exception {
+				return bus.waitResponse(modbusClient);
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+
+		buffer.writeRegister(1, 10, 5);
+		buffer.writeRegister(1, 50, 7);
+		buffer.writeCoil(1, 3, true);
+		try {
+			buffer.flush();
+			fail("no exception");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(2, buffer.getPendingCount());
+		assertEquals(5, pool.get(1).getHoldingRegister(10));
+
+		client.setTransport(bus);
+		assertEquals(0, buffer.flush());
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(7, pool.get(1).getHoldingRegister(50));
+		assertEquals(true, pool.get(1).getCoil(3));
+	}
+}
@@ -0,0 +1,40 @@
+package tijos.framework.component.modbus.planner;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unchanged detection of {@link WriteTable}
+ * @author TiJOS
+ *
+ */
+public class WriteTableTest {
+
+	@Test
+	public void unsignedRegisterUnchanged() {
+		WriteTable t = new WriteTable(10, false);
+		t.put(3, 65535, true);
+		t.written(0, 10);
+		assertEquals(65535, t.lastValue(3));
+
+		t.put(3, 65535, true);
+		assertEquals(0, t.pendingCount);
+		// same 16 bit value given as signed
+		t.put(3, -1, true);
+		assertEquals(0, t.pendingCount);
+		t.put(3, 0x8000, true);
+		assertEquals(1, t.pendingCount);
+	}
+
+	@Test
+	public void coilUnchanged() {
+		WriteTable t = new WriteTable(10, true);
+		t.put(5, 1, true);
+		t.written(0, 10);
+		t.put(5, 1, true);
+		assertEquals(0, t.pendingCount);
+		t.put(5, 0, true);
+		assertEquals(1, t.pendingCount);
+	}
+}
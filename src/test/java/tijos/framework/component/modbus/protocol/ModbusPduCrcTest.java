@@ -0,0 +1,115 @@
+package tijos.framework.component.modbus.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Slicing-by-4 CRC16 against the byte-table loop it replaced and a bitwise reference
+ * @author TiJOS
+ *
+ */
+public class ModbusPduCrcTest {
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++)
+			TABLE[i] = bitwise(0, new byte[] { (byte) i }, 0, 1);
+	}
+
+	/**
+	 * Bitwise CRC16/MODBUS, reflected polynomial 0xA001
+	 */
+	private static int bitwise(int crc, byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			crc ^= data[i] & 0xff;
+			for (int b = 0; b < 8; b++)
+				crc = ((crc & 1) != 0) ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+		}
+		return crc;
+	}
+
+	/**
+	 * Byte-table loop of calcCRC16 before slicing-by-4
+	 */
+	private static int byteTable(byte[] data, int offset, int length) {
+		int crc = 0xFFFF;
+		for (int i = 0; i < length; i++)
+			crc = (crc >>> 8) ^ TABLE[(crc ^ data[offset + i]) & 0xff];
+		return crc;
+	}
+
+	@Test
+	public void knownVector() {
+		byte[] data = "123456789".getBytes();
+		assertEquals(0x4B37, ModbusPdu.calcCRC16(data, 0, data.length));
+		// READ HOLDING REGISTERS id 1, address 0, count 10
+		byte[] req = { 0x01, 0x03, 0x00, 0x00, 0x00, 0x0A };
+		assertEquals(0xCDC5, ModbusPdu.calcCRC16(req, 0, req.length));
+	}
+
+	@Test
+	public void table() {
+		// first entries of the table in ModbusPdu
+		assertEquals(0x0000, TABLE[0]);
+		assertEquals(0xC0C1, TABLE[1]);
+		assertEquals(0xC181, TABLE[2]);
+		assertEquals(0x4040, TABLE[255]);
+	}
+
+	@Test
+	public void randomLengths() {
+		Random random = new Random(1);
+		byte[] data = new byte[256 + 8];
+		for (int n = 0; n < 2000; n++) {
+			random.nextBytes(data);
+			int length = random.nextInt(257);
+			int offset = random.nextInt(8);
+			int expected = byteTable(data, offset, length);
+			assertEquals("length " + length, expected, bitwise(0xFFFF, data, offset, length));
+			assertEquals("length " + length, expected, ModbusPdu.calcCRC16(data, offset, length));
+		}
+	}
+
+	@Test
+	public void incrementalUpdates() {
+		Random random = new Random(2);
+		byte[] data = new byte[256];
+		for (int n = 0; n < 2000; n++) {
+			random.nextBytes(data);
+			int length = random.nextInt(257);
+			int crc = 0xFFFF;
+			int i = 0;
+			while (i < length) {
+				int chunk = Math.min(length - i, random.nextInt(9));
+				crc = ModbusPdu.updateCRC16(crc, data, i, chunk);
+				i += chunk;
+			}
+			assertEquals("length " + length, byteTable(data, 0, length), crc);
+		}
+	}
+
+	@Test
+	public void residue() {
+		Random random = new Random(3);
+		byte[] frame = new byte[256 + 2];
+		for (int n = 0; n < 2000; n++) {
+			random.nextBytes(frame);
+			int length = random.nextInt(257);
+			int crc = byteTable(frame, 0, length);
+			frame[length] = ModbusPdu.lowByte(crc);
+			frame[length + 1] = ModbusPdu.highByte(crc);
+			assertTrue("length " + length, ModbusPdu.checkCRC16(frame, 0, length + 2));
+
+			frame[random.nextInt(length + 2)] ^= (byte) (1 << random.nextInt(8));
+			assertFalse("length " + length, ModbusPdu.checkCRC16(frame, 0, length + 2));
+		}
+		assertFalse(ModbusPdu.checkCRC16(frame, 0, 1));
+		assertFalse(ModbusPdu.checkCRC16(frame, 0, 0));
+	}
+}
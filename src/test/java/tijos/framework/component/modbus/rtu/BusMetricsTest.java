@@ -0,0 +1,51 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.FN_READ_HOLDING_REGISTERS;
+
+import org.junit.Test;
+
+/**
+ * Utilization window and server ids of {@link BusMetrics}
+ * @author TiJOS
+ *
+ */
+public class BusMetricsTest {
+
+	@Test
+	public void utilizationBeforeFullWindow() throws Exception {
+		BusMetrics metrics = new BusMetrics(10000);
+		Thread.sleep(200);
+		// 100 characters of 1ms, 100ms of the 200ms since creation
+		metrics.record(1, FN_READ_HOLDING_REGISTERS, ModbusClient.RESULT_OK, false, 100000, 8, 92, 1000);
+		int utilization = metrics.getUtilization();
+		assertTrue("utilization " + utilization, (utilization >= 30) && (utilization <= 50));
+
+		metrics.reset();
+		assertEquals(0, metrics.getUtilization());
+		metrics.record(1, FN_READ_HOLDING_REGISTERS, ModbusClient.RESULT_OK, false, 100000, 8, 92, 1000);
+		assertEquals(100, metrics.getUtilization());
+	}
+
+	@Test
+	public void serverIdOutOfRange() {
+		BusMetrics metrics = new BusMetrics();
+		metrics.record(247, FN_READ_HOLDING_REGISTERS, ModbusClient.RESULT_OK, false, 1500, 8, 9, 100);
+		ServerMetrics sm = new ServerMetrics();
+		assertTrue(metrics.getServerMetrics(247, sm));
+		assertEquals(1, sm.getHistogram(-1, 1));
+		assertEquals(2000, sm.getPercentile(-1, 99));
+		assertFalse(metrics.getServerMetrics(248, sm));
+		assertFalse(metrics.getServerMetrics(1000, sm));
+		assertFalse(metrics.getServerMetrics(-1, sm));
+	}
+
+	@Test
+	public void bucketBounds() {
+		assertEquals(1000, ServerMetrics.getBucketBound(0));
+		assertEquals(1000000, ServerMetrics.getBucketBound(ServerMetrics.BUCKETS - 2));
+		assertEquals(Long.MAX_VALUE, ServerMetrics.getBucketBound(ServerMetrics.BUCKETS - 1));
+	}
+}
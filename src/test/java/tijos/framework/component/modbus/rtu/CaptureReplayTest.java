@@ -0,0 +1,86 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Capture of a simulated bus by {@link FrameCapture}, replayed by {@link ReplayTransport}
+ * @author TiJOS
+ *
+ */
+public class CaptureReplayTest {
+
+	private static final int REQUESTS = 60;
+	private static final int CHUNK = 300; // a few records per chunk
+
+	/**
+	 * Every 20th request is sent to a server which does not exist and times out
+	 */
+	private static int[] run(ModbusClient client) throws Exception {
+		int[] values = new int[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			client.InitReadHoldingsRequest((i % 20 == 19) ? 2 : 1, i % 50, 10);
+			int result = client.execRequest();
+			values[i] = (result == ModbusClient.RESULT_OK) ? client.getResponseRegister(i % 50 + 9, false) : -result;
+		}
+		return values;
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		for (int i = 0; i < 100; i++)
+			pool.get(1).setHoldingRegister(i, i * 7);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		ModbusClient client = new ModbusClient(rs485, 20, 0);
+
+		File file = File.createTempFile("modbus", ".cap");
+		try {
+			FrameCapture capture = new FrameCapture(file.getPath(), CHUNK);
+			((RtuTransportUART) client.getTransport()).setCapture(capture);
+			int[] live = run(client);
+			capture.close();
+			assertEquals(-ModbusClient.RESULT_TIMEOUT, live[19]);
+			assertEquals(7 * 9, live[0]);
+			assertTrue(capture.getSize() > 10 * CHUNK);
+			assertEquals(capture.getSize(), file.length());
+
+			ReplayTransport replay = new ReplayTransport(new CaptureReader(file.getPath(), CHUNK), 20);
+			replay.setSpeed(0);
+			client.setTransport(replay);
+			assertArrayEquals(live, run(client));
+			try {
+				client.execRequest();
+				fail("end of capture");
+			} catch (EOFException e) {
+				// expected
+			}
+			replay.close();
+
+			replay = new ReplayTransport(new CaptureReader(file.getPath(), CHUNK), 20);
+			replay.setSpeed(0);
+			replay.setLoop(true);
+			client.setTransport(replay);
+			for (int k = 0; k < 3; k++)
+				assertArrayEquals(live, run(client));
+			assertEquals(3 * REQUESTS, replay.getRequests());
+			assertEquals(0, replay.getMismatches());
+			replay.close();
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.protocol.ModbusConstants;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Probing of offline servers by {@link ModbusClient}
+ * @author TiJOS
+ *
+ */
+public class ModbusClientProbeTest {
+
+	@Test
+	public void requestRestoredAfterFailedProbe() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 100, 100, 0);
+		pool.get(1).setHoldingRegister(20, 1234);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(115200, 8, 1, 0);
+		ModbusClient client = new ModbusClient(rs485, 20, 0);
+		final ModbusClientTransport bus = client.getTransport();
+		ServerHealthMonitor monitor = new ServerHealthMonitor(1, 1, 1);
+		client.setHealthMonitor(monitor);
+		monitor.onResult(1, ModbusClient.RESULT_TIMEOUT, 0);
+
+		client.setTransport(new ModbusClientTransport() {
+			@Override
+			public void sendRequest(ModbusClient modbusClient) throws Exception {
+				throw new IOException("UART failure");
+			}
+
+			@Override
+			public int waitResponse(ModbusClient modbusClient) throws Exception {
+				return ModbusClient.RESULT_TIMEOUT;
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		client.InitReadHoldingsRequest(1, 20, 2);
+		try {
+			client.execRequest();
+			fail("no exception");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(ModbusConstants.FN_READ_HOLDING_REGISTERS, client.getFunction());
+		assertEquals(20, client.readInt16FromPDU(1, true));
+		assertEquals(2, client.readInt16FromPDU(3, true));
+
+		// the pending request is sent as it was
+		client.setTransport(bus);
+		monitor.reset(1);
+		assertEquals(ModbusClient.RESULT_OK, client.execRequest());
+		assertEquals(20, client.getResponseAddress());
+		assertEquals(2, client.getResponseCount());
+		assertEquals(1234, client.getResponseRegister(20, true));
+	}
+}
@@ -0,0 +1,152 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.protocol.ModbusPdu;
+
+/**
+ * Streaming decoding of responses by {@link RtuFrameDecoder}
+ * @author TiJOS
+ *
+ */
+public class RtuFrameDecoderTest {
+
+	private final byte[] buffer = new byte[MAX_PDU_SIZE + 3];
+	private final RtuFrameDecoder decoder = new RtuFrameDecoder(buffer);
+
+	/**
+	 * Append CRC to a frame
+	 */
+	private static byte[] frame(int... bytes) {
+		byte[] f = new byte[bytes.length + 2];
+		for (int i = 0; i < bytes.length; i++)
+			f[i] = (byte) bytes[i];
+		int crc = ModbusPdu.calcCRC16(f, 0, bytes.length);
+		f[bytes.length] = ModbusPdu.lowByte(crc);
+		f[bytes.length + 1] = ModbusPdu.highByte(crc);
+		return f;
+	}
+
+	/**
+	 * Feed a frame in chunks, never more than the decoder asks for
+	 * @return status
+	 */
+	private int decode(byte[] frame, int chunk) {
+		int pos = 0;
+		int status = RtuFrameDecoder.NEED_MORE;
+		while ((status == RtuFrameDecoder.NEED_MORE) && (pos < frame.length)) {
+			int n = Math.min(Math.min(chunk, decoder.remaining()), frame.length - pos);
+			assertTrue(n > 0);
+			System.arraycopy(frame, pos, buffer, decoder.getLength(), n);
+			pos += n;
+			status = decoder.update(n);
+		}
+		return status;
+	}
+
+	@Test
+	public void chunkedRegisters() {
+		// 3 registers
+		byte[] f = frame(1, FN_READ_HOLDING_REGISTERS, 6, 0, 1, 0, 2, 0x12, 0x34);
+		for (int chunk = 1; chunk <= f.length; chunk++) {
+			decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 2 + 6);
+			assertEquals(RtuFrameDecoder.COMPLETE, decode(f, chunk));
+			assertEquals(f.length, decoder.getLength());
+			assertEquals(f.length, decoder.getFrameLength());
+			assertFalse(decoder.isException());
+		}
+	}
+
+	@Test
+	public void randomChunks() {
+		Random random = new Random(4);
+		for (int n = 0; n < 500; n++) {
+			int registers = 1 + random.nextInt(MAX_READ_REGS);
+			int[] bytes = new int[3 + registers * 2];
+			bytes[0] = 7;
+			bytes[1] = FN_READ_INPUT_REGISTERS;
+			bytes[2] = registers * 2;
+			for (int i = 3; i < bytes.length; i++)
+				bytes[i] = random.nextInt(256);
+			byte[] f = frame(bytes);
+			decoder.reset((byte) 7, FN_READ_INPUT_REGISTERS, 2 + registers * 2);
+			int pos = 0;
+			int status = RtuFrameDecoder.NEED_MORE;
+			while (status == RtuFrameDecoder.NEED_MORE) {
+				int count = 1 + random.nextInt(decoder.remaining());
+				System.arraycopy(f, pos, buffer, decoder.getLength(), count);
+				pos += count;
+				status = decoder.update(count);
+			}
+			assertEquals(RtuFrameDecoder.COMPLETE, status);
+			assertEquals(f.length, pos);
+		}
+	}
+
+	@Test
+	public void fixedLength() {
+		byte[] f = frame(1, FN_WRITE_SINGLE_REGISTER, 0, 10, 0x12, 0x34);
+		decoder.reset((byte) 1, FN_WRITE_SINGLE_REGISTER, 5);
+		assertEquals(RtuFrameDecoder.COMPLETE, decode(f, 3));
+		assertEquals(8, decoder.getFrameLength());
+	}
+
+	@Test
+	public void exception() {
+		byte[] f = frame(1, FN_READ_HOLDING_REGISTERS | 0x80, 2);
+		for (int chunk = 1; chunk <= f.length; chunk++) {
+			decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 2 + 20);
+			assertEquals(RtuFrameDecoder.COMPLETE, decode(f, chunk));
+			assertTrue(decoder.isException());
+			assertEquals(5, decoder.getFrameLength());
+		}
+	}
+
+	@Test
+	public void badCrc() {
+		byte[] f = frame(1, FN_READ_HOLDING_REGISTERS, 2, 0, 1);
+		for (int i = 3; i < f.length; i++) {
+			byte[] bad = f.clone();
+			bad[i] ^= 0x10;
+			decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 4);
+			assertEquals(RtuFrameDecoder.BAD_CRC, decode(bad, 2));
+			assertEquals(f.length, decoder.getLength());
+		}
+		// exception frame
+		byte[] e = frame(1, FN_READ_COILS | 0x80, 2);
+		e[2] = 3;
+		decoder.reset((byte) 1, FN_READ_COILS, 3);
+		assertEquals(RtuFrameDecoder.BAD_CRC, decode(e, 1));
+		assertTrue(decoder.isException());
+	}
+
+	@Test
+	public void byteCountMismatch() {
+		// 2 registers expected, 3 sent
+		byte[] f = frame(1, FN_READ_HOLDING_REGISTERS, 6, 0, 1, 0, 2, 0, 3);
+		decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 2 + 4);
+		assertEquals(RtuFrameDecoder.BAD_LENGTH, decode(f, 1));
+		// detected at the byte count, nothing more is read
+		assertEquals(3, decoder.getLength());
+		assertEquals(f.length, decoder.getFrameLength());
+	}
+
+	@Test
+	public void badHeader() {
+		byte[] f = frame(2, FN_READ_HOLDING_REGISTERS, 2, 0, 1);
+		decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 4);
+		assertEquals(RtuFrameDecoder.BAD_ID, decode(f, 4));
+
+		f = frame(1, FN_READ_INPUT_REGISTERS, 2, 0, 1);
+		decoder.reset((byte) 1, FN_READ_HOLDING_REGISTERS, 4);
+		assertEquals(RtuFrameDecoder.BAD_FUNCTION, decode(f, 1));
+		assertEquals(2, decoder.getLength());
+	}
+}
@@ -0,0 +1,39 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Response timeout of {@link RtuTransportUART}
+ * @author TiJOS
+ *
+ */
+public class RtuTransportUARTTest {
+
+	@Test
+	public void longFrameAtLowBaud() throws Exception {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 200, 100, 0);
+		pool.get(1).setHoldingRegister(124, 77);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(9600, 8, 1, 0);
+		// 125 registers take about 266 ms at 9600 baud, longer than the timeout
+		ModbusClient client = new ModbusClient(rs485, 200, 0);
+		client.InitReadHoldingsRequest(1, 0, 125);
+		assertEquals(ModbusClient.RESULT_OK, client.execRequest());
+		assertEquals(77, client.getResponseRegister(124, true));
+
+		// no answer still times out after about the timeout plus the frame time
+		pool.get(1).setOnline(false);
+		client.InitReadHoldingsRequest(1, 0, 125);
+		long start = System.currentTimeMillis();
+		assertEquals(ModbusClient.RESULT_TIMEOUT, client.execRequest());
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(470, elapsed, 100);
+	}
+}
@@ -0,0 +1,52 @@
+package tijos.framework.component.modbus.rtu;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Offline detection and probe backoff of {@link ServerHealthMonitor}
+ * @author TiJOS
+ *
+ */
+public class ServerHealthMonitorTest {
+
+	@Test
+	public void invalidServerIds() {
+		ServerHealthMonitor monitor = new ServerHealthMonitor(1, 100, 1000);
+		for (int id = 248; id < 256; id++) {
+			monitor.onResult(id, ModbusClient.RESULT_TIMEOUT, 0);
+			assertFalse(monitor.isOffline(id));
+			assertFalse(monitor.isProbeDue(id, 0));
+			monitor.reset(id);
+		}
+	}
+
+	@Test
+	public void badResponseProbeBacksOff() {
+		ServerHealthMonitor monitor = new ServerHealthMonitor(2, 100, 1000);
+		monitor.onResult(1, ModbusClient.RESULT_TIMEOUT, 0);
+		monitor.onResult(1, ModbusClient.RESULT_TIMEOUT, 0);
+		assertTrue(monitor.isOffline(1));
+		assertFalse(monitor.isProbeDue(1, 99));
+		assertTrue(monitor.isProbeDue(1, 100));
+
+		// probe answered with a CRC error
+		monitor.onResult(1, ModbusClient.RESULT_BAD_RESPONSE, 100);
+		assertTrue(monitor.isOffline(1));
+		assertFalse(monitor.isProbeDue(1, 299));
+		assertTrue(monitor.isProbeDue(1, 300));
+
+		monitor.onResult(1, ModbusClient.RESULT_EXCEPTION, 300);
+		assertFalse(monitor.isOffline(1));
+	}
+
+	@Test
+	public void badResponseOnlineIsNoTimeout() {
+		ServerHealthMonitor monitor = new ServerHealthMonitor(2, 100, 1000);
+		monitor.onResult(1, ModbusClient.RESULT_TIMEOUT, 0);
+		monitor.onResult(1, ModbusClient.RESULT_BAD_RESPONSE, 0);
+		assertFalse(monitor.isOffline(1));
+	}
+}
@@ -0,0 +1,124 @@
+package tijos.framework.component.modbus.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static tijos.framework.component.modbus.protocol.ModbusConstants.FN_READ_HOLDING_REGISTERS;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import tijos.framework.component.modbus.rtu.ModbusClient;
+import tijos.framework.component.modbus.rtu.ModbusClientTransport;
+import tijos.framework.component.modbus.rtu.ModbusRequest;
+import tijos.framework.component.modbus.sim.SimulatedSlavePool;
+import tijos.framework.component.rs485.SimulatedLine;
+import tijos.framework.component.rs485.TiRS485;
+
+/**
+ * Failures of the line in {@link ModbusScheduler}
+ * @author TiJOS
+ *
+ */
+public class ModbusSchedulerTest {
+
+	private PollJob errorJob;
+	private ModbusRequest errorRequest;
+	private int errors;
+	private int polls;
+
+	private final SchedulerListener listener = new SchedulerListener() {
+		@Override
+		public void onPoll(PollJob job, ModbusClient client, int result) {
+			polls++;
+		}
+
+		@Override
+		public void onRequest(ModbusRequest request, ModbusClient client, int result) {
+		}
+
+		@Override
+		public void onError(PollJob job, ModbusRequest request, Exception error) {
+			errors++;
+			errorJob = job;
+			errorRequest = request;
+		}
+
+		@Override
+		public void onOverrun(PollJob job, long lateness) {
+		}
+	};
+
+	private static ModbusClient client(final boolean[] failing) throws IOException {
+		SimulatedSlavePool pool = new SimulatedSlavePool(1);
+		pool.createSlaves(1, 1, 300, 100, 0);
+		TiRS485 rs485 = new TiRS485(new SimulatedLine(pool));
+		rs485.open(921600, 8, 1, 0);
+		ModbusClient client = new ModbusClient(rs485, 20, 0);
+		final ModbusClientTransport bus = client.getTransport();
+		client.setTransport(new ModbusClientTransport() {
+			@Override
+			public void sendRequest(ModbusClient modbusClient) throws Exception {
+				if (failing[0])
+					throw new IOException("UART failure");
+				bus.sendRequest(modbusClient);
+			}
+
+			@Override
+			public int waitResponse(ModbusClient modbusClient) throws Exception {
+				return bus.waitResponse(modbusClient);
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		return client;
+	}
+
+	@Test
+	public void failedFrameWaitsForNextPeriod() throws Exception {
+		boolean[] failing = { true };
+		ModbusScheduler scheduler = new ModbusScheduler(client(failing));
+		scheduler.setListener(listener);
+		// 300 registers, three frames
+		PollJob job = new PollJob(1, FN_READ_HOLDING_REGISTERS, 0, 300, 200);
+		scheduler.addJob(job);
+
+		assertEquals(0, scheduler.runOnce());
+		assertEquals(1, errors);
+		assertSame(job, errorJob);
+		assertNull(errorRequest);
+		assertEquals(1, job.getFailedFrames());
+		// the rest of the cycle is skipped
+		long wait = scheduler.runOnce();
+		assertTrue("wait " + wait, wait > 100);
+		assertEquals(1, errors);
+
+		failing[0] = false;
+		Thread.sleep(wait);
+		for (int i = 0; i < 3; i++)
+			assertEquals(0, scheduler.runOnce());
+		assertEquals(3, polls);
+		assertTrue(scheduler.runOnce() > 100);
+	}
+
+	@Test
+	public void failedRequestIsReported() throws Exception {
+		boolean[] failing = { true };
+		ModbusScheduler scheduler = new ModbusScheduler(client(failing));
+		scheduler.setListener(listener);
+		ModbusRequest request = ModbusRequest.writeRegister(1, 10, 5);
+		scheduler.submit(request);
+
+		assertEquals(0, scheduler.runOnce());
+		assertEquals(1, errors);
+		assertNull(errorJob);
+		assertSame(request, errorRequest);
+		// dropped, not retried
+		assertEquals(1000, scheduler.runOnce());
+		assertEquals(1, errors);
+	}
+}